@@ -0,0 +1,456 @@
+package com.example.medicineordering.cache;
+
+import com.example.medicineordering.model.Medicine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache for the medicine catalog.
+ * Holds single medicines by ID (bounded, least-recently-used eviction) and the
+ * in-stock browse list used by the customer dashboard. MedicineRepository keeps
+ * it in sync on every write, so reads only go to the database on a miss.
+ * Both expire after app.catalog.cache.ttl-seconds, so a change made outside this JVM (another
+ * node, a SQL fix) is picked up within the TTL.
+ *
+ * The browse list is a sorted map in CATALOG_ORDER with an index by ID, so a write patches one
+ * entry in O(log n) (dropped/added when its stock crosses zero) instead of copying the list.
+ * Readers get a list materialized from it once per change. It is only reloaded when its TTL runs
+ * out; one reader does the load, outside any lock that writers need, while the others keep getting
+ * the previous catalog. Every write records a stamp for its medicine, and a finished load re-reads
+ * just the rows written while it ran before it is installed, instead of being discarded.
+ */
+@Component
+public class MedicineCatalogCache {
+
+    /** Catalog order used for browsing and keyset paging: lower-cased name, then id */
+    public static final Comparator<Medicine> CATALOG_ORDER = Comparator
+            .comparing((Medicine m) -> sortName(m.getName()))
+            .thenComparingInt(Medicine::getId);
+
+    // Rounds of re-reading rows written during a catalog load before it is installed regardless
+    private static final int MAX_RECHECKS = 3;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Integer, Entry> byId;
+
+    // Guards patching and installing the catalog (never held during a database query)
+    private final Object catalogLock = new Object();
+    // In-stock catalog; patched in place by writes, replaced by a load. Null before the first load.
+    private volatile Catalog catalog;
+    private volatile long catalogLoadedAt;
+    // The load in progress, shared by every reader that needs it (guarded by catalogLock)
+    private CompletableFuture<Catalog> loading;
+
+    // Write stamps: each write takes the next stamp and records it for its medicine, so a load
+    // started at stamp S knows exactly which rows changed after it began
+    private final AtomicLong stamp = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> writtenAt = new ConcurrentHashMap<>();
+    private volatile long clearedAt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong catalogHits = new AtomicLong();
+    private final AtomicLong catalogLoads = new AtomicLong();
+    private final AtomicLong catalogPatches = new AtomicLong();
+
+    public MedicineCatalogCache(@Value("${app.catalog.cache.max-entries:5000}") int maxEntries,
+                                @Value("${app.catalog.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > MedicineCatalogCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a medicine by ID, loading it with the given loader on a miss or once its entry expired.
+     * Returns a copy, so callers can change it before saving without touching the cache.
+     */
+    public Medicine get(int id, Supplier<Medicine> loader) {
+        synchronized (byId) {
+            Entry cached = byId.get(id);
+            if (cached != null) {
+                if (!cached.expired(System.currentTimeMillis())) {
+                    hits.incrementAndGet();
+                    return new Medicine(cached.medicine);
+                }
+                byId.remove(id);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        long start = stamp.get();
+        Medicine loaded = loader.get();
+        if (loaded != null) {
+            synchronized (catalogLock) {
+                // Only a write to this medicine (or a clear) since the load started makes it stale
+                if (!writtenSince(id, start) && clearedAt <= start) {
+                    synchronized (byId) {
+                        byId.put(id, new Entry(new Medicine(loaded), System.currentTimeMillis()));
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Get the in-stock catalog, reloading it with the given loader when it is missing or expired.
+     * The returned list is shared and read-only.
+     * @param loader loads every in-stock medicine in CATALOG_ORDER
+     * @param rowLoader loads the current rows of the given medicines (any stock level)
+     */
+    public List<Medicine> getCatalog(Supplier<List<Medicine>> loader,
+                                     Function<Collection<Integer>, List<Medicine>> rowLoader) {
+        return catalog(loader, rowLoader).list();
+    }
+
+    /**
+     * Up to count in-stock medicines that come right after (afterName, afterId) in CATALOG_ORDER,
+     * or from the start for a null afterName. Same loading as getCatalog().
+     */
+    public List<Medicine> getCatalogPage(String afterName, int afterId, int count,
+                                         Supplier<List<Medicine>> loader,
+                                         Function<Collection<Integer>, List<Medicine>> rowLoader) {
+        return catalog(loader, rowLoader).page(afterName == null ? null : new Key(sortName(afterName), afterId), count);
+    }
+
+    private Catalog catalog(Supplier<List<Medicine>> loader,
+                            Function<Collection<Integer>, List<Medicine>> rowLoader) {
+        Catalog current = catalog;
+        if (current != null && System.currentTimeMillis() - catalogLoadedAt < ttlMillis) {
+            catalogHits.incrementAndGet();
+            return current;
+        }
+        CompletableFuture<Catalog> future;
+        boolean mine = false;
+        synchronized (catalogLock) {
+            if (loading == null) {
+                loading = new CompletableFuture<>();
+                mine = true;
+            }
+            future = loading;
+        }
+        if (mine) {
+            try {
+                future.complete(load(loader, rowLoader));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (catalogLock) {
+                    loading = null;
+                }
+            }
+        } else if (current != null) {
+            // Someone else is reloading: the expired catalog (still patched by every write) will do meanwhile
+            catalogHits.incrementAndGet();
+            return current;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    private Catalog load(Supplier<List<Medicine>> loader,
+                         Function<Collection<Integer>, List<Medicine>> rowLoader) {
+        long loadStart = stamp.get();
+        long start = loadStart;
+        Map<Integer, Medicine> loaded = new LinkedHashMap<>();
+        for (Medicine m : loader.get()) {
+            loaded.put(m.getId(), m);
+        }
+        catalogLoads.incrementAndGet();
+        for (int round = 0; ; round++) {
+            // Built before taking the lock; installed only if no row changed meanwhile
+            Catalog built = new Catalog(loaded.values());
+            Set<Integer> written;
+            long next;
+            synchronized (catalogLock) {
+                if (clearedAt > loadStart) {
+                    // Everything was invalidated while loading; the next reader loads again
+                    return built;
+                }
+                next = stamp.get();
+                written = writtenSince(start);
+                if (written.isEmpty() || round == MAX_RECHECKS) {
+                    // Any write after this point patches the installed catalog itself
+                    catalog = built;
+                    catalogLoadedAt = System.currentTimeMillis();
+                    warm(built);
+                    return built;
+                }
+            }
+            // Rows written while the load ran may or may not be in it: read just those again
+            loaded.keySet().removeAll(written);
+            for (Medicine m : rowLoader.apply(written)) {
+                if (m.getStockLevel() > 0) {
+                    loaded.put(m.getId(), m);
+                }
+            }
+            start = next;
+        }
+    }
+
+    // Refresh the by-ID cache from a freshly installed catalog (caller holds catalogLock)
+    private void warm(Catalog installed) {
+        long now = System.currentTimeMillis();
+        synchronized (byId) {
+            for (Medicine m : installed.list()) {
+                if (byId.size() >= maxEntries && !byId.containsKey(m.getId())) continue;
+                byId.put(m.getId(), new Entry(new Medicine(m), now));
+            }
+        }
+    }
+
+    /**
+     * Apply a stock change that was already committed to the database.
+     */
+    public void adjustStock(int id, int delta) {
+        synchronized (catalogLock) {
+            recordWrite(id);
+            Medicine known;
+            synchronized (byId) {
+                Entry cached = byId.get(id);
+                known = cached != null ? new Medicine(cached.medicine) : null;
+                if (known != null) {
+                    known.setStockLevel(known.getStockLevel() + delta);
+                    // The rest of the row is as old as before: keep its expiry
+                    byId.put(id, new Entry(new Medicine(known), cached.cachedAt));
+                }
+            }
+            Catalog current = catalog;
+            if (current == null) return;
+            Medicine listed = current.get(id);
+            if (listed != null) {
+                Medicine updated = new Medicine(listed);
+                updated.setStockLevel(updated.getStockLevel() + delta);
+                if (updated.getStockLevel() > 0) {
+                    current.add(updated);
+                } else {
+                    current.remove(id);
+                }
+                catalogPatches.incrementAndGet();
+            } else if (delta > 0) {
+                // Back in stock: add it if we know the rest of the row, otherwise let the next read reload
+                if (known != null && known.getStockLevel() > 0) {
+                    current.add(known);
+                    catalogPatches.incrementAndGet();
+                } else {
+                    catalogLoadedAt = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Store a medicine as it now is in the database (after an insert or update).
+     */
+    public void put(Medicine medicine) {
+        synchronized (catalogLock) {
+            recordWrite(medicine.getId());
+            synchronized (byId) {
+                byId.put(medicine.getId(), new Entry(new Medicine(medicine), System.currentTimeMillis()));
+            }
+            Catalog current = catalog;
+            if (current == null) return;
+            // Remove and re-insert: a new name moves it in CATALOG_ORDER
+            current.remove(medicine.getId());
+            if (medicine.getStockLevel() > 0) {
+                current.add(new Medicine(medicine));
+            }
+            catalogPatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop one medicine (e.g. after it was deleted).
+     */
+    public void evict(int id) {
+        synchronized (catalogLock) {
+            recordWrite(id);
+            synchronized (byId) {
+                byId.remove(id);
+            }
+            Catalog current = catalog;
+            if (current != null && current.remove(id)) {
+                catalogPatches.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop everything (e.g. after a bulk change done outside the repository).
+     * The catalog is reloaded by the next read.
+     */
+    public void clear() {
+        synchronized (catalogLock) {
+            clearedAt = stamp.incrementAndGet();
+            synchronized (byId) {
+                byId.clear();
+            }
+            catalog = null;
+        }
+    }
+
+    // Caller holds catalogLock
+    private void recordWrite(int id) {
+        writtenAt.put(id, stamp.incrementAndGet());
+    }
+
+    private boolean writtenSince(int id, long start) {
+        Long at = writtenAt.get(id);
+        return at != null && at > start;
+    }
+
+    private Set<Integer> writtenSince(long start) {
+        Set<Integer> ids = new HashSet<>();
+        writtenAt.forEach((id, at) -> {
+            if (at > start) ids.add(id);
+        });
+        return ids;
+    }
+
+    private static String sortName(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (byId) {
+            stats.put("size", byId.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("catalogHits", catalogHits.get());
+        stats.put("catalogLoads", catalogLoads.get());
+        stats.put("catalogPatches", catalogPatches.get());
+        return stats;
+    }
+
+    // A by-ID entry and when its row was read from the database
+    private final class Entry {
+        final Medicine medicine;
+        final long cachedAt;
+
+        Entry(Medicine medicine, long cachedAt) {
+            this.medicine = medicine;
+            this.cachedAt = cachedAt;
+        }
+
+        boolean expired(long now) {
+            return now - cachedAt >= ttlMillis;
+        }
+    }
+
+    // Position of a medicine in CATALOG_ORDER
+    private record Key(String name, int id) implements Comparable<Key> {
+        static Key of(Medicine m) {
+            return new Key(sortName(m.getName()), m.getId());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byName = name.compareTo(other.name);
+            return byName != 0 ? byName : Integer.compare(id, other.id);
+        }
+    }
+
+    // The in-stock catalog: entries in CATALOG_ORDER and where each medicine sits in it.
+    // Changed only under catalogLock; read without locks.
+    private static final class Catalog {
+        private final ConcurrentSkipListMap<Key, Medicine> entries = new ConcurrentSkipListMap<>();
+        private final ConcurrentHashMap<Integer, Key> keys = new ConcurrentHashMap<>();
+        // Bumped after every change; a materialized list is only reused while it matches
+        private volatile long version;
+        private volatile Snapshot snapshot;
+
+        private record Snapshot(long version, List<Medicine> list) {
+        }
+
+        Catalog(Collection<Medicine> medicines) {
+            for (Medicine m : medicines) {
+                Key key = Key.of(m);
+                entries.put(key, m);
+                keys.put(m.getId(), key);
+            }
+        }
+
+        Medicine get(int id) {
+            Key key = keys.get(id);
+            return key != null ? entries.get(key) : null;
+        }
+
+        // Add or replace one medicine
+        void add(Medicine medicine) {
+            Key key = Key.of(medicine);
+            Key previous = keys.put(medicine.getId(), key);
+            if (previous != null && !previous.equals(key)) {
+                entries.remove(previous);
+            }
+            entries.put(key, medicine);
+            version++;
+        }
+
+        boolean remove(int id) {
+            Key key = keys.remove(id);
+            if (key == null) return false;
+            entries.remove(key);
+            version++;
+            return true;
+        }
+
+        List<Medicine> list() {
+            long at = version;
+            Snapshot current = snapshot;
+            if (current != null && current.version == at) {
+                return current.list;
+            }
+            List<Medicine> list = List.copyOf(entries.values());
+            snapshot = new Snapshot(at, list);
+            return list;
+        }
+
+        List<Medicine> page(Key after, int count) {
+            Map<Key, Medicine> from = after == null ? entries : entries.tailMap(after, false);
+            List<Medicine> page = new ArrayList<>(Math.min(count, 64));
+            for (Medicine m : from.values()) {
+                if (page.size() == count) break;
+                page.add(m);
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.medicineordering.config;
+
+import com.example.medicineordering.service.InventoryLedgerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives medicines that existed before the inventory ledger a starting snapshot
+ * (their current stockLevel), so their level can be computed from the ledger.
+ */
+@Component
+public class InventoryLedgerInitializer implements CommandLineRunner {
+
+    @Autowired
+    private InventoryLedgerService inventoryLedgerService;
+
+    @Override
+    public void run(String... args) {
+        try {
+            int count = inventoryLedgerService.takeBaselineSnapshots();
+            if (count > 0) {
+                System.out.println("Inventory ledger: baseline snapshot for " + count + " medicine(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Could not take baseline inventory snapshots: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.medicineordering.config;
+
+import com.example.medicineordering.service.OrderPipeline;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * On startup, fails orders that a previous run left in "Processing" (the app stopped
+ * before their checkout committed), so customers see a final status for them.
+ */
+@Component
+public class OrderPipelineInitializer implements CommandLineRunner {
+
+    @Autowired
+    private OrderPipeline orderPipeline;
+
+    @Override
+    public void run(String... args) {
+        try {
+            int count = orderPipeline.failInterruptedOrders();
+            if (count > 0) {
+                System.out.println("Marked " + count + " interrupted order(s) as failed");
+            }
+        } catch (Exception e) {
+            System.err.println("Could not check for interrupted orders: " + e.getMessage());
+        }
+    }
+}
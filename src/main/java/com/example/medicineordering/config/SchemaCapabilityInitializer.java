@@ -0,0 +1,32 @@
+package com.example.medicineordering.config;
+
+import com.example.medicineordering.repository.PrescriptionRepository;
+import com.example.medicineordering.repository.SchemaCapabilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds the optional columns the app can create itself, then loads the schema capabilities once,
+ * so repositories don't probe sys.columns per query.
+ */
+@Component
+public class SchemaCapabilityInitializer implements CommandLineRunner {
+
+    @Autowired
+    private PrescriptionRepository prescriptionRepository;
+
+    @Autowired
+    private SchemaCapabilities schemaCapabilities;
+
+    @Override
+    public void run(String... args) {
+        try {
+            // Loads the capabilities on its first check
+            prescriptionRepository.ensureRejectionReasonColumnExists();
+            System.out.println("Schema capabilities loaded for " + schemaCapabilities.tableCount() + " table(s)");
+        } catch (Exception e) {
+            System.err.println("Could not load schema capabilities: " + e.getMessage());
+        }
+    }
+}
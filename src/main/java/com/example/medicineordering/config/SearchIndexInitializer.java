@@ -0,0 +1,60 @@
+package com.example.medicineordering.config;
+
+import com.example.medicineordering.repository.MedicineRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the medicine search index from dbo.Medicines once the application has started, then
+ * rebuilds it every app.search.rebuild-minutes so changes made outside the app show up.
+ * If the database is not reachable yet, search keeps working from the catalog cache.
+ */
+@Component
+public class SearchIndexInitializer implements CommandLineRunner {
+
+    @Autowired
+    private MedicineRepository medicineRepository;
+
+    @Value("${app.search.rebuild-minutes:30}")
+    private int rebuildMinutes;
+
+    private ScheduledExecutorService rebuilder;
+
+    @Override
+    public void run(String... args) {
+        rebuild();
+        if (rebuildMinutes > 0) {
+            rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "search-index-rebuild");
+                t.setDaemon(true);
+                return t;
+            });
+            rebuilder.scheduleWithFixedDelay(this::rebuild, rebuildMinutes, rebuildMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.currentTimeMillis();
+            int count = medicineRepository.rebuildSearchIndex();
+            System.out.println("Medicine search index built: " + count + " medicines in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Could not build medicine search index: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+        }
+    }
+}
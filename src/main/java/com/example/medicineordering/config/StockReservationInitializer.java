@@ -0,0 +1,27 @@
+package com.example.medicineordering.config;
+
+import com.example.medicineordering.service.StockReservationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts the cart stock holds that survived a restart back on the expiry queue,
+ * so the sweeper removes them when they run out.
+ */
+@Component
+public class StockReservationInitializer implements CommandLineRunner {
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Override
+    public void run(String... args) {
+        try {
+            int count = stockReservationService.loadHolds();
+            System.out.println("Stock reservations loaded: " + count + " live hold(s)");
+        } catch (Exception e) {
+            System.err.println("Could not load stock reservations: " + e.getMessage());
+        }
+    }
+}
@@ -6,6 +6,8 @@ import com.example.medicineordering.model.Driver;
 import com.example.medicineordering.repository.UserRepository;
 import com.example.medicineordering.repository.CustomerRepository;
 import com.example.medicineordering.repository.DriverRepository;
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.service.CartMergeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Controller;
@@ -14,6 +16,7 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.servlet.http.HttpSession;
+import java.util.List;
 import java.util.Optional;
 
 @Controller
@@ -22,13 +25,16 @@ public class AuthenticationController {
     private final UserRepository userRepository;
     private final CustomerRepository customerRepository;
     private final DriverRepository driverRepository;
+    private final CartMergeService cartMergeService;
     private final BCryptPasswordEncoder passwordEncoder;
 
     @Autowired
-    public AuthenticationController(UserRepository userRepository, CustomerRepository customerRepository, DriverRepository driverRepository) {
+    public AuthenticationController(UserRepository userRepository, CustomerRepository customerRepository, DriverRepository driverRepository,
+                                    CartMergeService cartMergeService) {
         this.userRepository = userRepository;
         this.customerRepository = customerRepository;
         this.driverRepository = driverRepository;
+        this.cartMergeService = cartMergeService;
         this.passwordEncoder = new BCryptPasswordEncoder();
     }
 
@@ -167,11 +173,45 @@ public class AuthenticationController {
         // Set customer-specific session attributes for backward compatibility
         if (user.isCustomer()) {
             session.setAttribute("customerId", user.getId());
+            mergeGuestCart(user, session, ra);
         }
 
         ra.addFlashAttribute("success", "Welcome back, " + user.getFullName() + "!");
     }
 
+    /**
+     * Move what the customer put in their cart as a guest into their saved cart
+     * The session cart is kept if the merge fails, so nothing is lost
+     */
+    private void mergeGuestCart(User user, HttpSession session, RedirectAttributes ra) {
+        @SuppressWarnings("unchecked")
+        List<Cart> sessionCart = (List<Cart>) session.getAttribute("sessionCart");
+        if (sessionCart == null || sessionCart.isEmpty()) {
+            return;
+        }
+        try {
+            CartMergeService.Result result = cartMergeService.merge(user.getId(), sessionCart);
+            session.removeAttribute("sessionCart");
+            System.out.println("Merged " + result.getMerged() + " guest cart line(s) for user: " + user.getUsername());
+
+            StringBuilder notice = new StringBuilder();
+            if (result.getMerged() > 0) {
+                notice.append(result.getMerged()).append(" item(s) from your guest cart were added to your cart.");
+            }
+            if (!result.getReduced().isEmpty()) {
+                notice.append(" Reduced to the available stock: ").append(String.join(", ", result.getReduced())).append(".");
+            }
+            if (!result.getSkipped().isEmpty()) {
+                notice.append(" Not added, out of stock: ").append(String.join(", ", result.getSkipped())).append(".");
+            }
+            if (notice.length() > 0) {
+                ra.addFlashAttribute("cartNotice", notice.toString().trim());
+            }
+        } catch (Exception e) {
+            System.err.println("Guest cart merge failed for user " + user.getUsername() + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Handle driver login
      */
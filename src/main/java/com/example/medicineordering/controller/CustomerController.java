@@ -1,8 +1,14 @@
 package com.example.medicineordering.controller;
 
+import com.example.medicineordering.files.FileResponder;
+import com.example.medicineordering.files.StorageService;
+import com.example.medicineordering.files.ThumbnailService;
+import com.example.medicineordering.model.CatalogPage;
 import com.example.medicineordering.model.Medicine;
 import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.OrderHistoryPage;
 import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.CartView;
 import com.example.medicineordering.model.OrderItem;
 import com.example.medicineordering.model.Prescription;
 import com.example.medicineordering.model.Customer;
@@ -15,9 +21,16 @@ import com.example.medicineordering.repository.OrderRepository;
 import com.example.medicineordering.repository.OrderItemRepository;
 import com.example.medicineordering.repository.CustomerRepository;
 import com.example.medicineordering.repository.ContactInquiryRepository;
+import com.example.medicineordering.service.CheckoutService;
+import com.example.medicineordering.service.DeadlockRetry;
 import com.example.medicineordering.service.NotificationService;
+import com.example.medicineordering.service.OrderCancellationService;
+import com.example.medicineordering.service.OrderNumberAllocator;
+import com.example.medicineordering.service.OrderPipeline;
+import com.example.medicineordering.service.StockReservationService;
 import com.example.medicineordering.service.CustomerSupportService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -26,22 +39,25 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import java.util.UUID;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.io.IOException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 
 @Controller
 @RequestMapping("/customer")
 public class CustomerController {
 
+    private static final int CATALOG_PAGE_SIZE = 24;
+    private static final int ORDER_HISTORY_PAGE_SIZE = 20;
+
     private final MedicineRepository medicineRepository;
     private final OrderRepository orderRepository;
     private final CartRepository cartRepository;
@@ -52,16 +68,31 @@ public class CustomerController {
     private final JdbcTemplate jdbcTemplate;
     private final NotificationService notificationService;
     private final CustomerSupportService customerSupportService;
+    private final CheckoutService checkoutService;
+    private final OrderPipeline orderPipeline;
+    private final StockReservationService stockReservationService;
+    private final OrderNumberAllocator orderNumberAllocator;
+    private final OrderCancellationService orderCancellationService;
+    private final DeadlockRetry deadlockRetry;
+    private final FileResponder fileResponder;
+    private final StorageService storageService;
+    private final ThumbnailService thumbnailService;
 
-    @Value("${app.upload.dir:uploads}")
-    private String uploadDir;
+    // Queue cart checkouts on OrderPipeline instead of running them on the request thread
+    @Value("${app.orders.async:false}")
+    private boolean asyncOrders;
 
     @Autowired
     public CustomerController(MedicineRepository medicineRepository, OrderRepository orderRepository,
                               CartRepository cartRepository, PrescriptionRepository prescriptionRepository,
                               CustomerRepository customerRepository, OrderItemRepository orderItemRepository,
                               ContactInquiryRepository contactInquiryRepository, JdbcTemplate jdbcTemplate,
-                              NotificationService notificationService, CustomerSupportService customerSupportService) {
+                              NotificationService notificationService, CustomerSupportService customerSupportService,
+                              CheckoutService checkoutService, OrderPipeline orderPipeline,
+                              StockReservationService stockReservationService, OrderNumberAllocator orderNumberAllocator,
+                              OrderCancellationService orderCancellationService, DeadlockRetry deadlockRetry,
+                              FileResponder fileResponder, StorageService storageService,
+                              ThumbnailService thumbnailService) {
         this.medicineRepository = medicineRepository;
         this.orderRepository = orderRepository;
         this.cartRepository = cartRepository;
@@ -72,6 +103,15 @@ public class CustomerController {
         this.jdbcTemplate = jdbcTemplate;
         this.notificationService = notificationService;
         this.customerSupportService = customerSupportService;
+        this.checkoutService = checkoutService;
+        this.orderPipeline = orderPipeline;
+        this.stockReservationService = stockReservationService;
+        this.orderNumberAllocator = orderNumberAllocator;
+        this.orderCancellationService = orderCancellationService;
+        this.deadlockRetry = deadlockRetry;
+        this.fileResponder = fileResponder;
+        this.storageService = storageService;
+        this.thumbnailService = thumbnailService;
     }
 
     /**
@@ -96,15 +136,17 @@ public class CustomerController {
     }
 
     // Dashboard with simple search by name/category - accessible to guests
+    // Only the first page of the catalog is rendered; the rest is loaded from /dashboard/page while scrolling
     @GetMapping("/dashboard")
     public String dashboard(@RequestParam(value = "name", required = false) String name,
                             @RequestParam(value = "category", required = false) String category,
+                            @RequestParam(value = "size", defaultValue = "" + CATALOG_PAGE_SIZE) int size,
                             Model model, HttpSession session) {
         // Allow guest access - no authentication required
         User user = (User) session.getAttribute("user");
         
-        List<Medicine> medicines = medicineRepository.search(name, category);
-        model.addAttribute("medicines", medicines);
+        CatalogPage page = medicineRepository.findPage(name, category, null, 0, size);
+        addCatalogPage(model, page, size);
         model.addAttribute("name", name == null ? "" : name);
         model.addAttribute("category", category == null ? "" : category);
         model.addAttribute("user", user);
@@ -119,6 +161,27 @@ public class CustomerController {
         return "customer_dashboard";
     }
 
+    // Next page of the catalog for infinite scroll (keyset cursor = name + id of the last card shown)
+    @GetMapping("/dashboard/page")
+    public String dashboardPage(@RequestParam(value = "name", required = false) String name,
+                                @RequestParam(value = "category", required = false) String category,
+                                @RequestParam(value = "afterName", required = false) String afterName,
+                                @RequestParam(value = "afterId", defaultValue = "0") int afterId,
+                                @RequestParam(value = "size", defaultValue = "" + CATALOG_PAGE_SIZE) int size,
+                                Model model) {
+        CatalogPage page = medicineRepository.findPage(name, category, afterName, afterId, size);
+        addCatalogPage(model, page, size);
+        return "customer_dashboard :: productCards";
+    }
+
+    private void addCatalogPage(Model model, CatalogPage page, int size) {
+        model.addAttribute("medicines", page.getItems());
+        model.addAttribute("hasMore", page.isHasMore());
+        model.addAttribute("nextAfterName", page.getNextAfterName());
+        model.addAttribute("nextAfterId", page.getNextAfterId());
+        model.addAttribute("pageSize", Math.max(1, Math.min(size, MedicineRepository.MAX_PAGE_SIZE)));
+    }
+
     // CART: CREATE (add item) - Allow guest users
     @PostMapping("/cart/add")
     public String addToCart(@RequestParam("medicineId") int medicineId,
@@ -149,8 +212,15 @@ public class CustomerController {
                 Integer customerId = user.getId();
                 // Ensure Customer record exists for cart functionality
                 ensureCustomerRecordExists(user);
+                // Hold the whole line (what's already in the cart plus this) before adding it
+                int lineQuantity = cartRepository.findQuantity(customerId, medicineId) + quantity;
+                if (!deadlockRetry.run("cart hold", () -> stockReservationService.hold(customerId, medicineId, lineQuantity))) {
+                    int available = stockReservationService.available(customerId, medicineId);
+                    ra.addFlashAttribute("error", "Not enough stock available. Only " + available + " can be added to your cart right now.");
+                    return "redirect:/customer/dashboard";
+                }
                 cartRepository.addItem(customerId, medicineId, quantity);
-                ra.addFlashAttribute("success", "Item added to cart.");
+                ra.addFlashAttribute("success", "Item added to cart. It's reserved for you while you shop.");
             } else {
                 // For guest users, use session-based cart
                 addToSessionCart(session, medicineId, quantity, med);
@@ -168,29 +238,26 @@ public class CustomerController {
     @GetMapping("/cart")
     public String viewCart(HttpSession session, Model model, RedirectAttributes ra) {
         User user = (User) session.getAttribute("user");
-        List<Cart> items = new ArrayList<>();
+        List<Cart> items;
+        double totalAmount = 0.0;
         
         if (user != null && user.isCustomer()) {
-            // Logged in user - use database cart
+            // Logged in user - priced database cart and total in one query
             Integer customerId = user.getId();
             // Ensure Customer record exists for cart functionality
             ensureCustomerRecordExists(user);
-            items = cartRepository.findByCustomerId(customerId);
-            if (items == null) {
-                items = new ArrayList<>();
-            }
+            CartView cart = cartRepository.findViewByCustomerId(customerId);
+            // Still looking at the cart: keep its stock holds alive
+            stockReservationService.refresh(customerId);
+            items = cart.getItems();
+            totalAmount = cart.getTotalAmount();
         } else {
-            // Guest user - use session cart
+            // Guest user - session cart, priced from the (cached) catalog
             items = getSessionCart(session);
-        }
-        
-        // Add medicine names, stock levels, prices, and categories for display
-        double totalAmount = 0.0;
-        for (int i = 0; i < items.size(); i++) {
-            Cart cart = items.get(i);
-            try {
-                Medicine med = medicineRepository.findById(cart.getMedicineId());
-                if (med != null) {
+            for (int i = 0; i < items.size(); i++) {
+                Cart cart = items.get(i);
+                try {
+                    Medicine med = medicineRepository.findById(cart.getMedicineId());
                     cart.setMedicineName(med.getName());
                     cart.setStockLevel(med.getStockLevel());
                     cart.setPrice(med.getPrice());
@@ -198,24 +265,21 @@ public class CustomerController {
                     cart.setRequiresPrescription(med.isRequiresPrescription());
                     // Calculate total for this item
                     totalAmount += med.getPrice() * cart.getQuantity();
-                } else {
+                } catch (Exception e) {
+                    System.err.println("Error loading medicine for cart item: " + e.getMessage());
                     cart.setMedicineName("Medicine Not Found");
                     cart.setStockLevel(0);
                     cart.setPrice(0.0);
                     cart.setCategory("Unknown");
                     cart.setRequiresPrescription(false);
                 }
-            } catch (Exception e) {
-                System.err.println("Error loading medicine for cart item: " + e.getMessage());
-                cart.setMedicineName("Unknown Medicine");
-                cart.setStockLevel(0);
-                cart.setPrice(0.0);
-                cart.setCategory("Unknown");
-                cart.setRequiresPrescription(false);
             }
         }
+        
         model.addAttribute("items", items);
         model.addAttribute("totalAmount", totalAmount);
+        // One key per rendered checkout form; resubmitting the form reuses it
+        model.addAttribute("idempotencyKey", UUID.randomUUID().toString());
         return "customer_cart";
     }
 
@@ -236,9 +300,9 @@ public class CustomerController {
                 return "redirect:/customer/cart";
             }
             
-            // Check stock availability
-            if (!medicineRepository.hasEnoughStock(cartItem.getMedicineId(), quantity)) {
-                int availableStock = medicineRepository.getStockLevel(cartItem.getMedicineId());
+            // Check stock availability (stock held for other carts doesn't count) and hold the new quantity
+            if (!deadlockRetry.run("cart hold", () -> stockReservationService.hold(cartItem.getCustomerId(), cartItem.getMedicineId(), quantity))) {
+                int availableStock = stockReservationService.available(cartItem.getCustomerId(), cartItem.getMedicineId());
                 ra.addFlashAttribute("error", "Insufficient stock! Only " + availableStock + " items available.");
                 return "redirect:/customer/cart";
             }
@@ -255,7 +319,11 @@ public class CustomerController {
     @PostMapping("/cart/remove")
     public String removeFromCart(@RequestParam("id") int id, RedirectAttributes ra) {
         try {
+            Cart cartItem = cartRepository.findById(id);
             cartRepository.removeItem(id);
+            if (cartItem != null) {
+                stockReservationService.release(cartItem.getCustomerId(), List.of(cartItem.getMedicineId()));
+            }
             ra.addFlashAttribute("success", "Item removed.");
         } catch (Exception e) {
             ra.addFlashAttribute("error", "Could not remove item.");
@@ -269,6 +337,7 @@ public class CustomerController {
                                 @RequestParam("deliveryAddress") String deliveryAddress,
                                 @RequestParam("deliveryWindow") String deliveryWindow,
                                 @RequestParam("paymentMethod") String paymentMethod,
+                                @RequestParam(value = "idempotencyKey", required = false) String idempotencyKey,
                                 HttpSession session,
                                 RedirectAttributes ra) {
         User user = (User) session.getAttribute("user");
@@ -294,74 +363,32 @@ public class CustomerController {
         
         System.out.println("Payment method selected: " + paymentMethod);
         try {
-            List<Cart> items = cartRepository.findByCustomerId(customerId);
-            if (items == null || items.size() == 0) {
-                ra.addFlashAttribute("error", "Cart is empty.");
-                return "redirect:/customer/cart";
-            }
-            double totalWeight = 0.0;
-            for (int i = 0; i < items.size(); i++) {
-                Cart c = items.get(i);
-                totalWeight = totalWeight + (c.getQuantity() * 0.1);
-            }
-            Order order = new Order();
-            order.setOrderNumber(UUID.randomUUID().toString().substring(0, 8));
             // SECURITY FIX: Always use the logged-in user's name, not form input
-            order.setCustomerName(user.getFullName());
-            order.setDeliveryAddress(deliveryAddress);
-            order.setDeliveryWindow(deliveryWindow);
-            order.setStatus("Pending");
-            order.setWeight(totalWeight);
-            
-            // SECURITY FIX: Don't store customer name in session - use user.getFullName() directly
-            // session.setAttribute("customerName", user.getFullName()); // REMOVED - causes cross-contamination
-            Order saved = orderRepository.save(order);
-            
-            // Check if order was saved successfully
+            String scopedKey = scopedIdempotencyKey(user, idempotencyKey);
+            if (asyncOrders) {
+                // Stock and items are handled by a worker; the status page shows the progress
+                Order accepted = orderPipeline.submitFromCart(customerId, user.getFullName(), deliveryAddress,
+                        deliveryWindow, scopedKey);
+                System.out.println("Order accepted with ID: " + accepted.getId());
+                ra.addFlashAttribute("success", "Order #" + accepted.getOrderNumber() + " received! We're processing it now.");
+                return "redirect:/customer/order-status/" + accepted.getId();
+            }
+            Order saved = deadlockRetry.run("checkout", () -> checkoutService.placeFromCart(customerId, user.getFullName(),
+                    deliveryAddress, deliveryWindow, scopedKey));
             System.out.println("Order saved with ID: " + saved.getId());
-            if (saved.getId() > 0) {
-                // Reduce stock for each item in the cart
-                boolean stockReduced = true;
-                for (int i = 0; i < items.size(); i++) {
-                    Cart cartItem = items.get(i);
-                    boolean reduced = medicineRepository.reduceStock(cartItem.getMedicineId(), cartItem.getQuantity());
-                    if (!reduced) {
-                        stockReduced = false;
-                        System.err.println("Failed to reduce stock for medicine ID: " + cartItem.getMedicineId());
-                        break;
-                    }
-                }
-                
-                if (stockReduced) {
-                    // Save order items for tracking
-                    List<OrderItem> orderItems = new ArrayList<>();
-                    for (int i = 0; i < items.size(); i++) {
-                        Cart cartItem = items.get(i);
-                        Medicine med = medicineRepository.findById(cartItem.getMedicineId());
-                        OrderItem orderItem = new OrderItem();
-                        orderItem.setOrderId(saved.getId());
-                        orderItem.setMedicineId(cartItem.getMedicineId());
-                        orderItem.setQuantity(cartItem.getQuantity());
-                        orderItem.setPrice(med.getPrice());
-                        orderItems.add(orderItem);
-                    }
-                    orderItemRepository.saveOrderItems(saved.getId(), orderItems);
-                    
-                    // Clear cart only after successful stock reduction and order item saving
-                    cartRepository.clearCustomerCart(customerId);
-                    ra.addFlashAttribute("success", "Order placed successfully! Order #" + saved.getOrderNumber());
-                    System.out.println("Redirecting to order status page with ID: " + saved.getId());
-                    return "redirect:/customer/order-status/" + saved.getId();
-                } else {
-                    // If stock reduction failed, delete the order and show error
-                    orderRepository.deleteById(saved.getId());
-                    ra.addFlashAttribute("error", "Some items are out of stock. Please check your cart and try again.");
-                    return "redirect:/customer/cart";
-                }
-            } else {
-                ra.addFlashAttribute("error", "Failed to save order. Please try again.");
-                return "redirect:/customer/cart";
+            ra.addFlashAttribute("success", "Order placed successfully! Order #" + saved.getOrderNumber());
+            return "redirect:/customer/order-status/" + saved.getId();
+        } catch (DuplicateKeyException e) {
+            // Same submission arrived twice at the same time; the other request placed the order
+            Optional<Order> original = orderRepository.findByIdempotencyKey(scopedIdempotencyKey(user, idempotencyKey));
+            if (original.isPresent()) {
+                return "redirect:/customer/order-status/" + original.get().getId();
             }
+            ra.addFlashAttribute("error", "Could not place order. Please try again.");
+            return "redirect:/customer/cart";
+        } catch (CheckoutService.CheckoutException e) {
+            ra.addFlashAttribute("error", e.getMessage());
+            return "redirect:/customer/cart";
         } catch (Exception e) {
             System.err.println("Order placement error: " + e.getMessage());
             e.printStackTrace();
@@ -379,6 +406,7 @@ public class CustomerController {
             @ModelAttribute("orderForm") Order orderForm, // Collects customer name, address, etc.
             @RequestParam("medicineId") Integer medicineId,
             @RequestParam("quantity") Integer quantity,
+            @RequestParam(value = "idempotencyKey", required = false) String idempotencyKey,
             HttpSession session,
             RedirectAttributes redirectAttributes
     ) {
@@ -393,6 +421,16 @@ public class CustomerController {
             return "redirect:/customer/home";
         }
 
+        // A resubmitted form (same idempotency key) goes straight to the order it already created
+        User user = (User) session.getAttribute("user");
+        String scopedKey = scopedIdempotencyKey(user, idempotencyKey);
+        if (scopedKey != null) {
+            Optional<Order> existing = orderRepository.findByIdempotencyKey(scopedKey);
+            if (existing.isPresent()) {
+                return "redirect:/customer/order-status/" + existing.get().getId();
+            }
+        }
+
         // --- Core Logic: Find Medicine and Calculate Order Weight/Cost ---
         Medicine medicine;
         try {
@@ -412,11 +450,12 @@ public class CustomerController {
         Double totalWeight = quantity * 0.1;
 
         // 3. Prepare the Order object for saving (CREATE CRUD)
-        orderForm.setOrderNumber(UUID.randomUUID().toString().substring(0, 8)); // Generate a unique short order number
+        orderForm.setOrderNumber(orderNumberAllocator.next()); // Unique short order number, no database call
         orderForm.setStatus("Pending");
         orderForm.setWeight(totalWeight);
+        orderForm.setIdempotencyKey(scopedKey);
+        orderForm.setCustomerId(user != null ? user.getId() : 0);
         // SECURITY FIX: Always use the logged-in user's name, not form input
-        User user = (User) session.getAttribute("user");
         if (user != null) {
             orderForm.setCustomerName(user.getFullName());
         } else {
@@ -431,6 +470,13 @@ public class CustomerController {
             // Success: Redirect to status page using the new Order ID
             return "redirect:/customer/order-status/" + savedOrder.getId();
 
+        } catch (DuplicateKeyException e) {
+            Optional<Order> original = orderRepository.findByIdempotencyKey(scopedKey);
+            if (original.isPresent()) {
+                return "redirect:/customer/order-status/" + original.get().getId();
+            }
+            redirectAttributes.addFlashAttribute("errorMessage", "Could not place order due to a system error.");
+            return "redirect:/customer/home";
         } catch (Exception e) {
             System.err.println("Error saving order: " + e.getMessage());
             e.printStackTrace();
@@ -452,29 +498,21 @@ public class CustomerController {
                 Order order = orderOptional.get();
                 System.out.println("Found order: " + order.getOrderNumber() + " for customer: " + order.getCustomerName());
                 
-                // Get order items for detailed display
+                // Get order items for detailed display; medicine name/category come from the same query
                 List<OrderItem> orderItems = orderItemRepository.findByOrderId(id);
                 System.out.println("Found " + orderItems.size() + " items for order " + id);
                 
-                // Add medicine details to order items
+                // Medicine was deleted since the order was placed
                 for (OrderItem item : orderItems) {
-                    try {
-                        Medicine medicine = medicineRepository.findById(item.getMedicineId());
-                        if (medicine != null) {
-                            item.setMedicineName(medicine.getName());
-                            item.setCategory(medicine.getCategory());
-                            item.setRequiresPrescription(medicine.isRequiresPrescription());
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Error loading medicine for order item: " + e.getMessage());
+                    if (item.getMedicineName() == null) {
                         item.setMedicineName("Unknown Medicine");
                         item.setCategory("Unknown");
-                        item.setRequiresPrescription(false);
                     }
                 }
                 
                 model.addAttribute("order", order);
                 model.addAttribute("orderItems", orderItems);
+                model.addAttribute("processingMessage", orderPipeline.getMessage(id));
                 return "customer_order_status_simple";
         } else {
                 System.out.println("Order not found with ID: " + id);
@@ -490,55 +528,51 @@ public class CustomerController {
         }
     }
 
+    /**
+     * Lightweight status check polled by the order status page while an order is "Processing"
+     */
+    @GetMapping("/order-status/{id}/progress")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> orderProgress(@PathVariable int id, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null || !user.isCustomer()) {
+            return ResponseEntity.notFound().build();
+        }
+        // SECURITY: Another customer's order looks the same as one that doesn't exist
+        Optional<Order> order = orderRepository.findById(id);
+        if (order.isEmpty() || order.get().getCustomerId() != user.getId()) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", order.get().getStatus());
+        body.put("message", orderPipeline.getMessage(id));
+        return ResponseEntity.ok(body);
+    }
+
     // My Orders - simple recent list
     @GetMapping("/orders")
-    public String myOrders(HttpSession session, Model model) {
+    public String myOrders(@RequestParam(value = "before", required = false, defaultValue = "0") int before,
+                           HttpSession session, Model model) {
         System.out.println("=== MY ORDERS PAGE LOAD ===");
         
         // Check if customer is logged in
         User user = (User) session.getAttribute("user");
         System.out.println("User from session: " + (user != null ? user.getUsername() : "null"));
-        System.out.println("User role: " + (user != null ? user.getRole() : "null"));
-        System.out.println("Is customer: " + (user != null ? user.isCustomer() : "null"));
         
         if (user == null || !user.isCustomer()) {
             System.out.println("Redirecting to login - user is null or not a customer");
             return "redirect:/login";
         }
         
-        // Get orders filtered by customer name (SECURITY: Only show this customer's orders)
-        List<Order> allOrders = orderRepository.findRecent(100);
-        final String customerName = user.getFullName();
-        System.out.println("Filtering orders for customer: " + customerName);
-        
-        List<Order> orders = allOrders.stream()
-            .filter(order -> {
-                System.out.println("Checking order: " + order.getCustomerName() + " vs " + customerName);
-                return customerName != null && order.getCustomerName() != null && 
-                       order.getCustomerName().equals(customerName);
-            })
-            .limit(20)
-            .collect(java.util.stream.Collectors.toList());
+        // SECURITY: Only this customer's orders, newest first, with item counts (one indexed query)
+        OrderHistoryPage page = orderRepository.findByCustomer(user.getId(), Math.max(0, before), ORDER_HISTORY_PAGE_SIZE);
+        List<Order> orders = page.getOrders();
         
-        // Enhance orders with additional information
-        for (Order order : orders) {
-            // Set order date (use current time as placeholder)
-            order.setOrderDate(java.time.LocalDateTime.now());
-            
-            // Get item count for this order
-            try {
-                List<OrderItem> orderItems = orderItemRepository.findByOrderId(order.getId());
-                order.setItemCount(orderItems.size());
-            } catch (Exception e) {
-                System.err.println("Error getting item count for order " + order.getId() + ": " + e.getMessage());
-                order.setItemCount(0);
-            }
-        }
-        
-        System.out.println("Found " + orders.size() + " orders for customer");
+        System.out.println("Found " + orders.size() + " orders for customer " + user.getId());
         model.addAttribute("orders", orders);
-        
-        System.out.println("Orders loaded successfully: " + orders.size());
+        model.addAttribute("hasMoreOrders", page.isHasMore());
+        model.addAttribute("nextBeforeId", page.getNextBeforeId());
+        model.addAttribute("olderPage", before > 0);
         return "customer_orders_simple";
     }
 
@@ -563,29 +597,18 @@ public class CustomerController {
                 return "redirect:/customer/orders";
             }
             
-            // Get order items before deleting the order
-            List<OrderItem> orderItems = orderItemRepository.findByOrderId(id);
-            
-            // Restore stock for each item in the order
-            boolean stockRestored = true;
-            for (int i = 0; i < orderItems.size(); i++) {
-                OrderItem item = orderItems.get(i);
-                boolean restored = medicineRepository.restoreStock(item.getMedicineId(), item.getQuantity());
-                if (!restored) {
-                    stockRestored = false;
-                    System.err.println("Failed to restore stock for medicine ID: " + item.getMedicineId());
-                }
+            Order order = orderOptional.get();
+            if (order.getCustomerId() != 0 && order.getCustomerId() != user.getId()) {
+                ra.addFlashAttribute("error", "Order not found.");
+                return "redirect:/customer/orders";
             }
             
-            if (stockRestored) {
-                // Delete order items and order
-                orderItemRepository.deleteByOrderId(id);
-                orderRepository.deleteById(id);
+            // Restock all items and delete the order in one transaction
+            if (deadlockRetry.run("cancel", () -> orderCancellationService.cancelByCustomer(id))) {
                 System.out.println("Order cancelled and stock restored successfully: " + id);
                 ra.addFlashAttribute("success", "Order cancelled successfully. Stock has been restored.");
             } else {
-                System.err.println("Failed to restore stock for some items in order: " + id);
-                ra.addFlashAttribute("error", "Order cancelled but some stock could not be restored. Please contact support.");
+                ra.addFlashAttribute("error", "This order can no longer be cancelled (status: " + order.getStatus() + ").");
             }
             
             return "redirect:/customer/orders";
@@ -625,27 +648,10 @@ public class CustomerController {
             customer.setPhone(user.getPhone() != null ? user.getPhone() : "+94 77 123 4567"); // Use user's phone or default
             customer.setAddress("123 Health Street, Colombo 05, Sri Lanka"); // Default address
             
-            // Get statistics - get all orders and filter by customer name
-            List<Order> allOrders = orderRepository.findRecent(100);
-            final String customerName = user.getFullName();
-            System.out.println("Filtering orders for customer: " + customerName);
-            
-            List<Order> orders = allOrders.stream()
-                .filter(order -> {
-                    System.out.println("Checking order: " + order.getCustomerName() + " vs " + customerName);
-                    return customerName != null && order.getCustomerName() != null && 
-                           order.getCustomerName().equals(customerName);
-                })
-                .limit(10)
-                .collect(java.util.stream.Collectors.toList());
-            
-            System.out.println("Found " + orders.size() + " orders for customer");
-            
-            // If no orders found by name, show empty list (don't show other customers' orders!)
-            if (orders.isEmpty()) {
-                System.out.println("No orders found for this customer - showing empty list");
-                orders = new ArrayList<>(); // Empty list instead of showing other customers' data
-            }
+            // Recent orders and order count for this customer only (indexed by customerId)
+            List<Order> orders = orderRepository.findByCustomer(user.getId(), 0, 10).getOrders();
+            int ordersCount = orderRepository.countByCustomer(user.getId());
+            System.out.println("Found " + ordersCount + " orders for customer " + user.getId());
             
             List<Prescription> prescriptions = prescriptionRepository.findByCustomerId(user.getId());
             List<Cart> cartItems = cartRepository.findByCustomerId(user.getId());
@@ -667,7 +673,7 @@ public class CustomerController {
             model.addAttribute("orders", orders);
             model.addAttribute("prescriptions", prescriptions);
             model.addAttribute("inquiries", inquiries);
-            model.addAttribute("ordersCount", orders.size());
+            model.addAttribute("ordersCount", ordersCount);
             model.addAttribute("prescriptionsCount", prescriptions.size());
             model.addAttribute("pendingPrescriptions", pendingPrescriptions);
             model.addAttribute("cartItems", cartItems.size());
@@ -717,6 +723,9 @@ public class CustomerController {
                                      HttpSession session,
                                      RedirectAttributes ra) {
         System.out.println("=== UPLOAD START ===");
+        // Reference taken on the stored file, given back if the prescription is never recorded
+        String storedUrl = null;
+        boolean recorded = false;
         
         try {
             User user = (User) session.getAttribute("user");
@@ -765,28 +774,11 @@ public class CustomerController {
                 return "redirect:/customer/prescriptions";
             }
             
-            // Create upload directory in project root
-            String projectRoot = System.getProperty("user.dir");
-            System.out.println("Project root: " + projectRoot);
-            
-            java.nio.file.Path uploadPath = java.nio.file.Paths.get(projectRoot, "uploads");
-            System.out.println("Upload path: " + uploadPath.toAbsolutePath());
-            
-            // Create directory if it doesn't exist
-            if (!java.nio.file.Files.exists(uploadPath)) {
-                java.nio.file.Files.createDirectories(uploadPath);
-                System.out.println("Created upload directory: " + uploadPath.toAbsolutePath());
-            }
-            
-            // Generate unique filename
-            String fileExtension = original.substring(original.lastIndexOf("."));
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
-            java.nio.file.Path filePath = uploadPath.resolve(uniqueFileName);
-            System.out.println("Target file path: " + filePath.toAbsolutePath());
-            
-            // Save file to disk
-            file.transferTo(filePath.toFile());
-            System.out.println("File saved successfully to: " + filePath.toAbsolutePath());
+            // Save file to the content-addressed upload store (identical files are stored once)
+            storedUrl = storageService.save(file);
+            java.nio.file.Path filePath = storageService.resolve(storedUrl);
+            thumbnailService.enqueue(filePath.toString());
+            System.out.println("File saved successfully to: " + filePath);
             
             // Ensure Customer record exists before saving prescription
             ensureCustomerRecordExists(user);
@@ -794,7 +786,8 @@ public class CustomerController {
             // Create preliminary order with delivery details
             System.out.println("Creating preliminary order...");
             Order preliminaryOrder = new Order();
-            preliminaryOrder.setOrderNumber("ORD-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
+            preliminaryOrder.setOrderNumber(orderNumberAllocator.next());
+            preliminaryOrder.setCustomerId(customerId); // Owner, for the order history
             preliminaryOrder.setCustomerName(user.getFullName());
             preliminaryOrder.setDeliveryAddress(deliveryAddress);
             preliminaryOrder.setDeliveryWindow(deliveryWindow);
@@ -819,6 +812,7 @@ public class CustomerController {
             System.out.println("Customer ID: " + customerId);
             System.out.println("Order ID: " + preliminaryOrder.getId());
             prescriptionRepository.save(prescription);
+            recorded = true;
             System.out.println("Database save successful, ID: " + prescription.getId());
             
             ra.addFlashAttribute("success", "Prescription uploaded successfully: " + original);
@@ -827,6 +821,9 @@ public class CustomerController {
             
         } catch (Exception e) {
             System.err.println("=== UPLOAD ERROR ===");
+            if (storedUrl != null && !recorded) {
+                storageService.release(storedUrl);
+            }
             System.err.println("Error type: " + e.getClass().getSimpleName());
             System.err.println("Error message: " + e.getMessage());
             e.printStackTrace();
@@ -861,6 +858,22 @@ public class CustomerController {
         return "redirect:/customer/support";
     }
     
+    /**
+     * Idempotency keys come from the client, so they are prefixed with the user ID:
+     * one customer can never look up (or collide with) another customer's order.
+     * Returns null when there is no usable key, which disables the duplicate check.
+     */
+    private String scopedIdempotencyKey(User user, String idempotencyKey) {
+        if (user == null || !StringUtils.hasText(idempotencyKey)) {
+            return null;
+        }
+        String key = idempotencyKey.trim();
+        if (key.length() > 64 || !key.matches("[A-Za-z0-9-]+")) {
+            return null;
+        }
+        return user.getId() + ":" + key;
+    }
+
     /**
      * Ensure Customer record exists for cart functionality
      */
@@ -1081,21 +1094,19 @@ public class CustomerController {
     }
     
     /**
-     * Serve prescription files for download/viewing
+     * Serve prescription files for download/viewing (byte ranges, ETag/Last-Modified and 304s, see FileResponder)
      */
     @GetMapping("/prescription/file/{id}")
-    public ResponseEntity<Resource> getPrescriptionFile(@PathVariable Integer id) throws IOException {
+    public void getPrescriptionFile(@PathVariable Integer id, HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
         List<Prescription> prescriptions = prescriptionRepository.findById(id);
-        if (!prescriptions.isEmpty()) {
-            Prescription prescription = prescriptions.get(0);
-            Resource resource = new FileSystemResource(prescription.getFilePath());
-            String filename = prescription.getFileName();
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=" + filename)
-                    .body(resource);
+        if (prescriptions.isEmpty() || prescriptions.get(0).getFilePath() == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
-        return ResponseEntity.notFound().build();
+        Prescription prescription = prescriptions.get(0);
+        fileResponder.send(java.nio.file.Paths.get(prescription.getFilePath()), prescription.getFileName(),
+                request, response);
     }
     
     /**
@@ -1117,6 +1128,8 @@ public class CustomerController {
             return "redirect:/customer/prescriptions";
         }
         
+        String storedUrl = null;
+        boolean recorded = false;
         try {
             // Get the existing prescription
             List<Prescription> prescriptions = prescriptionRepository.findById(id);
@@ -1133,13 +1146,11 @@ public class CustomerController {
                 return "redirect:/customer/prescriptions";
             }
             
-            // Save the new file
-            java.nio.file.Path dir = java.nio.file.Paths.get(uploadDir);
-            if (!java.nio.file.Files.exists(dir)) {
-                java.nio.file.Files.createDirectories(dir);
-            }
-            java.nio.file.Path dest = dir.resolve(System.currentTimeMillis() + "_" + file.getOriginalFilename());
-            java.nio.file.Files.copy(file.getInputStream(), dest);
+            // Save the new file (a re-upload of the same scan reuses the stored copy)
+            storedUrl = storageService.save(file);
+            java.nio.file.Path dest = storageService.resolve(storedUrl);
+            thumbnailService.enqueue(dest.toString());
+            String previousPath = prescription.getFilePath();
             
             // Update the prescription
             prescription.setFileName(file.getOriginalFilename());
@@ -1149,9 +1160,15 @@ public class CustomerController {
             prescription.setUploadDate(java.time.LocalDateTime.now());
             
             prescriptionRepository.save(prescription);
+            recorded = true;
+            storageService.release(previousPath);
             ra.addFlashAttribute("success", "Prescription re-uploaded successfully. It will be reviewed again.");
             
         } catch (Exception e) {
+            // The new file was counted but the prescription still points at the old one
+            if (storedUrl != null && !recorded) {
+                storageService.release(storedUrl);
+            }
             ra.addFlashAttribute("error", "Error re-uploading prescription: " + e.getMessage());
         }
         
@@ -1,12 +1,18 @@
 package com.example.medicineordering.controller;
 
+import com.example.medicineordering.files.ThumbnailService;
 import com.example.medicineordering.model.Medicine;
 import com.example.medicineordering.model.Prescription;
+import com.example.medicineordering.model.PrescriptionPage;
 import com.example.medicineordering.model.Order;
 import com.example.medicineordering.model.User;
 import com.example.medicineordering.repository.MedicineRepository;
 import com.example.medicineordering.repository.PrescriptionRepository;
 import com.example.medicineordering.repository.OrderRepository;
+import com.example.medicineordering.service.DeadlockRetry;
+import com.example.medicineordering.service.OrderCancellationService;
+import com.example.medicineordering.service.OrderNumberAllocator;
+import com.example.medicineordering.service.PrescriptionReviewQueue;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -16,9 +22,12 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import jakarta.servlet.http.HttpSession;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 @Controller
 @RequestMapping("/pharmacist")
@@ -33,6 +42,24 @@ public class PharmacistController {
     @Autowired
     private OrderRepository orderRepository;
 
+    @Autowired
+    private OrderNumberAllocator orderNumberAllocator;
+
+    @Autowired
+    private OrderCancellationService orderCancellationService;
+
+    @Autowired
+    private DeadlockRetry deadlockRetry;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private PrescriptionReviewQueue prescriptionReviewQueue;
+
+    // Prescriptions per page of the full list (the review queue is separate)
+    private static final int PRESCRIPTION_PAGE_SIZE = 25;
+
     @GetMapping({"", "/dashboard"})
     public String dashboard(HttpSession session, Model model, RedirectAttributes ra) {
         // Check if user is logged in and is a pharmacist
@@ -42,17 +69,13 @@ public class PharmacistController {
             return "redirect:/login";
         }
         
-        // Ensure rejectionReason column exists
-        prescriptionRepository.ensureRejectionReasonColumnExists();
-        
         // Get statistics for dashboard
         List<Medicine> medicines = medicineRepository.findAll();
-        List<Prescription> pendingPrescriptions = prescriptionRepository.findByStatus("PENDING");
-        List<Prescription> approvedPrescriptions = prescriptionRepository.findByStatus("APPROVED");
+        Map<String, Integer> prescriptionCounts = prescriptionRepository.countByStatus();
         
         model.addAttribute("totalMedicines", medicines.size());
-        model.addAttribute("pendingPrescriptions", pendingPrescriptions.size());
-        model.addAttribute("approvedPrescriptions", approvedPrescriptions.size());
+        model.addAttribute("pendingPrescriptions", prescriptionCounts.getOrDefault("PENDING", 0));
+        model.addAttribute("approvedPrescriptions", prescriptionCounts.getOrDefault("APPROVED", 0));
         model.addAttribute("lowStockMedicines", medicines.stream()
             .filter(m -> m.getStockLevel() < 10)
             .count());
@@ -69,14 +92,16 @@ public class PharmacistController {
             return "redirect:/login";
         }
         
-        List<Medicine> medicines = medicineRepository.findAll();
+        // Straight from the database with row versions (and out-of-stock medicines), for the stock edits below
+        List<Medicine> medicines = medicineRepository.findAllWithVersion();
         model.addAttribute("medicines", medicines);
         model.addAttribute("medicine", new Medicine());
         return "pharmacist_medicines";
     }
 
     @GetMapping("/prescriptions")
-    public String prescriptions(HttpSession session, Model model, RedirectAttributes ra) {
+    public String prescriptions(@RequestParam(value = "before", defaultValue = "0") int before,
+                                HttpSession session, Model model, RedirectAttributes ra) {
         // Check if user is logged in and is a pharmacist
         User user = (User) session.getAttribute("user");
         if (user == null || !user.getRole().equals("Pharmacist")) {
@@ -84,8 +109,30 @@ public class PharmacistController {
             return "redirect:/login";
         }
         
-        List<Prescription> prescriptions = prescriptionRepository.findAll();
+        // This pharmacist's leased review batch, then all prescriptions a page at a time
+        List<Prescription> queue = prescriptionReviewQueue.myQueue(user.getId());
+        PrescriptionPage page = prescriptionRepository.findPage(before, PRESCRIPTION_PAGE_SIZE);
+        List<Prescription> prescriptions = page.getPrescriptions();
+        model.addAttribute("queue", queue);
         model.addAttribute("prescriptions", prescriptions);
+        model.addAttribute("hasMore", page.isHasMore());
+        model.addAttribute("nextBeforeId", page.getNextBeforeId());
+        model.addAttribute("pharmacistId", user.getId());
+        // Small previews where the background thumbnail is ready; the rest keep the file link only
+        List<Prescription> shown = new ArrayList<>(queue);
+        shown.addAll(prescriptions);
+        List<String> paths = new ArrayList<>();
+        for (Prescription p : shown) {
+            paths.add(p.getFilePath());
+        }
+        Map<String, String> thumbnailUrls = thumbnailService.thumbnailUrls(paths);
+        Map<Integer, String> thumbnails = new HashMap<>();
+        for (Prescription p : shown) {
+            if (thumbnailUrls.containsKey(p.getFilePath())) {
+                thumbnails.put(p.getId(), thumbnailUrls.get(p.getFilePath()));
+            }
+        }
+        model.addAttribute("thumbnails", thumbnails);
         return "pharmacist_prescriptions";
     }
 
@@ -110,16 +157,20 @@ public class PharmacistController {
             // Check if medicine exists by name
             List<Medicine> existingMedicines = medicineRepository.findByName(medicine.getName());
             if (!existingMedicines.isEmpty()) {
-                // Update existing medicine
+                // Update the details of the existing medicine; its stock is only changed from the stock column
                 Medicine existing = existingMedicines.get(0);
-                existing.setPrice(medicine.getPrice());
-                existing.setStockLevel(medicine.getStockLevel());
-                existing.setCategory(medicine.getCategory());
-                existing.setDescription(medicine.getDescription());
-                existing.setRequiresPrescription(medicine.isRequiresPrescription());
-                existing.setImageUrl(medicine.getImageUrl());
-                medicineRepository.save(existing);
-                ra.addFlashAttribute("success", "Medicine updated successfully.");
+                Map<String, Object> fields = new LinkedHashMap<>();
+                fields.put("price", medicine.getPrice());
+                fields.put("category", medicine.getCategory());
+                fields.put("description", medicine.getDescription());
+                fields.put("requiresPrescription", medicine.isRequiresPrescription());
+                fields.put("imageUrl", medicine.getImageUrl());
+                medicineRepository.patchDetails(existing.getId(), fields);
+                if (medicine.getStockLevel() != existing.getStockLevel()) {
+                    ra.addFlashAttribute("success", "Medicine details updated. Stock was not changed; use the Stock Level column to set it.");
+                } else {
+                    ra.addFlashAttribute("success", "Medicine updated successfully.");
+                }
             } else {
                 // Add new medicine
                 medicineRepository.save(medicine);
@@ -164,6 +215,7 @@ public class PharmacistController {
     @PostMapping("/medicine/{id}/stock")
     public String updateMedicineStock(@PathVariable Integer id, 
                                     @RequestParam("stockLevel") Integer stockLevel,
+                                    @RequestParam(value = "version", defaultValue = "0") long version,
                                     HttpSession session, 
                                     RedirectAttributes ra) {
         // Check if user is logged in and is a pharmacist
@@ -175,12 +227,14 @@ public class PharmacistController {
         
         try {
             Medicine medicine = medicineRepository.findById(id);
-            if (medicine != null) {
-                medicine.setStockLevel(stockLevel);
-                medicineRepository.save(medicine);
+            if (medicine == null) {
+                ra.addFlashAttribute("error", "Medicine not found.");
+            } else if (medicineRepository.updateStock(id, stockLevel, version)) {
                 ra.addFlashAttribute("success", "Stock level updated successfully.");
             } else {
-                ra.addFlashAttribute("error", "Medicine not found.");
+                // The row changed after the page was loaded (e.g. an order took stock), so the count is outdated
+                ra.addFlashAttribute("error", "The stock of " + medicine.getName() + " changed since the page was loaded. " +
+                        "Please check the current level and enter it again.");
             }
         } catch (Exception e) {
             ra.addFlashAttribute("error", "Error updating stock: " + e.getMessage());
@@ -202,17 +256,18 @@ public class PharmacistController {
         
         try {
             List<Prescription> prescriptions = prescriptionRepository.findById(id);
-            if (!prescriptions.isEmpty()) {
+            if (prescriptions.isEmpty()) {
+                ra.addFlashAttribute("error", "Prescription not found.");
+            } else if (!prescriptionReviewQueue.approve(id, user.getId())) {
+                ra.addFlashAttribute("error", "This prescription is being reviewed by another pharmacist or was already decided.");
+            } else {
                 Prescription prescription = prescriptions.get(0);
                 prescription.setStatus("APPROVED");
-                prescriptionRepository.save(prescription);
                 
                 // Create an order for the approved prescription
                 createOrderFromPrescription(prescription);
                 
                 ra.addFlashAttribute("success", "Prescription approved and order created.");
-            } else {
-                ra.addFlashAttribute("error", "Prescription not found.");
             }
         } catch (Exception e) {
             ra.addFlashAttribute("error", "Error approving prescription: " + e.getMessage());
@@ -240,14 +295,18 @@ public class PharmacistController {
         
         try {
             List<Prescription> prescriptions = prescriptionRepository.findById(id);
-            if (!prescriptions.isEmpty()) {
+            if (prescriptions.isEmpty()) {
+                ra.addFlashAttribute("error", "Prescription not found.");
+            } else if (!prescriptionReviewQueue.reject(id, user.getId(), rejectionReason.trim())) {
+                ra.addFlashAttribute("error", "This prescription is being reviewed by another pharmacist or was already decided.");
+            } else {
                 Prescription prescription = prescriptions.get(0);
-                prescription.setStatus("REJECTED");
-                prescription.setRejectionReason(rejectionReason.trim());
-                prescriptionRepository.save(prescription);
+                // The order waiting on this prescription is cancelled and its stock put back
+                if (prescription.getOrderId() != null) {
+                    int orderId = prescription.getOrderId();
+                    deadlockRetry.run("prescription rejection", () -> orderCancellationService.rejectPrescriptionOrder(orderId));
+                }
                 ra.addFlashAttribute("success", "Prescription rejected with reason: " + rejectionReason);
-            } else {
-                ra.addFlashAttribute("error", "Prescription not found.");
             }
         } catch (Exception e) {
             ra.addFlashAttribute("error", "Error rejecting prescription: " + e.getMessage());
@@ -256,6 +315,20 @@ public class PharmacistController {
         return "redirect:/pharmacist/prescriptions";
     }
     
+    @PostMapping("/prescription/{id}/release")
+    public String releasePrescription(@PathVariable Integer id, HttpSession session, RedirectAttributes ra) {
+        // Check if user is logged in and is a pharmacist
+        User user = (User) session.getAttribute("user");
+        if (user == null || !user.getRole().equals("Pharmacist")) {
+            ra.addFlashAttribute("error", "Access denied. Pharmacist login required.");
+            return "redirect:/login";
+        }
+        
+        prescriptionReviewQueue.release(id, user.getId());
+        ra.addFlashAttribute("success", "Prescription returned to the review queue.");
+        return "redirect:/pharmacist/prescriptions";
+    }
+    
     private void createOrderFromPrescription(Prescription prescription) {
         try {
             // If prescription already has an order, update it
@@ -272,7 +345,8 @@ public class PharmacistController {
             
             // Create new order if none exists
             Order order = new Order();
-            order.setOrderNumber("ORD-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
+            order.setOrderNumber(orderNumberAllocator.next());
+            order.setCustomerId(prescription.getCustomerId()); // Owner, for the order history
             order.setCustomerName(prescription.getCustomerName());
             order.setDeliveryAddress("To be confirmed"); // Will be updated by customer
             order.setDeliveryWindow("Standard delivery");
@@ -1,44 +1,222 @@
 package com.example.medicineordering.files;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.nio.file.*;
-import java.util.UUID;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
 
+/**
+ * Content-addressed store for uploaded files (prescriptions, proof-of-delivery photos, signatures,
+ * issue photos). A file is named after the SHA-256 of its bytes, computed while it is streamed to a
+ * temp file, and kept under two levels of hash-prefix directories (uploads/ab/cd/abcd...ef.png), so
+ * no directory grows past 65536 entries and the same bytes uploaded twice are stored once.
+ *
+ * dbo.StoredFiles counts the references to each file: save() adds one, release() drops one and
+ * deletes the file when none are left, together with its thumbnail job and thumbnail (ThumbnailService). Both run under a per-hash lock, so a release can't delete a
+ * file that a concurrent save of the same bytes is about to reuse (this assumes one application node
+ * writes the upload directory). Files stored before this have no row; release() leaves them alone.
+ */
 @Service
 public class StorageService {
+
+    private static final String URL_PREFIX = "/uploads/";
+    private static final int LOCK_STRIPES = 64;
+
     private final Path root;
+    private final Path tmp;
+    private final JdbcTemplate jdbc;
+    private final Object[] locks = new Object[LOCK_STRIPES];
 
-    public StorageService(@Value("${app.upload-dir:uploads}") String uploadDir) throws IOException {
+    public StorageService(@Value("${app.upload.dir:uploads}") String uploadDir, JdbcTemplate jdbc) throws IOException {
         this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
-        Files.createDirectories(this.root);
+        this.tmp = root.resolve(".tmp");
+        this.jdbc = jdbc;
+        Files.createDirectories(this.tmp);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
     }
 
-    public String save(MultipartFile file, String prefix) throws IOException {
+    /**
+     * Store an uploaded file (or add a reference to identical bytes already stored).
+     * @return URL of the file under /uploads/, or null for an empty upload
+     */
+    public String save(MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) return null;
-        String ext = "";
-        String original = file.getOriginalFilename();
-        if (original != null && original.contains(".")) {
-            ext = original.substring(original.lastIndexOf('.'));
+        try (InputStream in = file.getInputStream()) {
+            return store(in, extensionOf(file.getOriginalFilename()));
         }
-        String filename = prefix + "_" + UUID.randomUUID() + ext;
-        Path dest = this.root.resolve(filename);
-        Files.copy(file.getInputStream(), dest, StandardCopyOption.REPLACE_EXISTING);
-        return "/uploads/" + filename;
     }
 
-    public String saveBytes(byte[] bytes, String prefix, String ext) throws IOException {
+    public String saveBytes(byte[] bytes, String ext) throws IOException {
         if (bytes == null || bytes.length == 0) return null;
-        String filename = prefix + "_" + UUID.randomUUID() + "." + ext;
-        Path dest = this.root.resolve(filename);
-        Files.createDirectories(dest.getParent());
-        try (OutputStream os = Files.newOutputStream(dest)) {
-            os.write(bytes);
+        return store(new ByteArrayInputStream(bytes), "." + ext.toLowerCase(Locale.ROOT));
+    }
+
+    private String store(InputStream in, String ext) throws IOException {
+        Path temp = Files.createTempFile(tmp, "up", ".part");
+        try {
+            MessageDigest sha256 = sha256();
+            long size;
+            try (DigestInputStream digesting = new DigestInputStream(in, sha256)) {
+                size = Files.copy(digesting, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexFormat.of().formatHex(sha256.digest());
+            synchronized (lockFor(hash)) {
+                // The first upload of these bytes decides the stored name (and extension)
+                String sql = """
+                    MERGE dbo.StoredFiles WITH (HOLDLOCK) AS T
+                    USING (SELECT ? AS sha256) AS S ON T.sha256 = S.sha256
+                    WHEN MATCHED THEN UPDATE SET refCount = T.refCount + 1
+                    WHEN NOT MATCHED THEN INSERT (sha256, path, size, refCount) VALUES (S.sha256, ?, ?, 1)
+                    OUTPUT inserted.path;
+                    """;
+                String relative = jdbc.queryForObject(sql, String.class, hash, shardPath(hash, ext), size);
+                Path dest = root.resolve(relative);
+                if (!Files.exists(dest)) {
+                    Files.createDirectories(dest.getParent());
+                    Files.move(temp, dest, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return URL_PREFIX + relative;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Drop one reference to a stored file (by its URL or path) and delete it when it was the last.
+     * @return true if the file was deleted
+     */
+    public boolean release(String location) {
+        String hash = hashOf(location);
+        if (hash == null) return false;
+        synchronized (lockFor(hash)) {
+            List<String> gone = jdbc.queryForList(
+                    "DELETE FROM dbo.StoredFiles OUTPUT deleted.path WHERE sha256 = ? AND refCount <= 1",
+                    String.class, hash);
+            if (gone.isEmpty()) {
+                jdbc.update("UPDATE dbo.StoredFiles SET refCount = refCount - 1 WHERE sha256 = ?", hash);
+                return false;
+            }
+            // Its derivatives go with it (a job still running notices the missing row and cleans up)
+            List<String> derived = jdbc.queryForList(
+                    "DELETE FROM dbo.DerivativeJobs OUTPUT deleted.derivedPath WHERE sourcePath = ?",
+                    String.class, gone.get(0));
+            for (String path : derived) {
+                if (path != null) deleteQuietly(path);
+            }
+            return deleteQuietly(gone.get(0));
+        }
+    }
+
+    private boolean deleteQuietly(String relative) {
+        try {
+            return Files.deleteIfExists(root.resolve(relative));
+        } catch (IOException e) {
+            System.err.println("Could not delete stored file " + relative + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * For a save() made inside the surrounding transaction: if it rolls back, the reference the
+     * MERGE added is rolled back with it, but a file moved into place for new bytes is not. Delete
+     * that file once no dbo.StoredFiles row is left for it. Does nothing outside a transaction.
+     */
+    public void discardOnRollback(String location) {
+        if (location == null || !TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    discardIfUnreferenced(location);
+                }
+            }
+        });
+    }
+
+    // Delete a stored file that no dbo.StoredFiles row counts (anymore)
+    boolean discardIfUnreferenced(String location) {
+        String hash = hashOf(location);
+        if (hash == null) return false;
+        synchronized (lockFor(hash)) {
+            Integer rows = jdbc.queryForObject("SELECT COUNT(*) FROM dbo.StoredFiles WHERE sha256 = ?", Integer.class, hash);
+            if (rows != null && rows > 0) return false;
+            String relative = relativePath(location);
+            return relative != null && deleteQuietly(relative);
+        }
+    }
+
+    /**
+     * Filesystem path of a stored file's URL (/uploads/...) or path.
+     */
+    public Path resolve(String url) {
+        String relative = url.startsWith(URL_PREFIX) ? url.substring(URL_PREFIX.length()) : url;
+        Path path = root.resolve(relative).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Not a stored file: " + url);
+        }
+        return path;
+    }
+
+    /**
+     * A stored file's path relative to the upload directory ("ab/cd/abcd...ef.png"),
+     * or null when the location is outside it.
+     */
+    public String relativePath(String location) {
+        try {
+            return root.relativize(resolve(location)).toString().replace('\\', '/');
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ab/cd/abcd...ef.ext
+    private static String shardPath(String hash, String ext) {
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + ext;
+    }
+
+    // The hash from a stored file's name; null for files stored before the content-addressed layout
+    private static String hashOf(String location) {
+        if (location == null) return null;
+        String name = Paths.get(location).getFileName().toString();
+        if (name.length() < 64) return null;
+        String hash = name.substring(0, 64);
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0 || Character.isUpperCase(hash.charAt(i))) return null;
+        }
+        return hash;
+    }
+
+    private static String extensionOf(String original) {
+        if (original == null || !original.contains(".")) return "";
+        String ext = original.substring(original.lastIndexOf('.')).toLowerCase(Locale.ROOT);
+        return ext.matches("\\.[a-z0-9]{1,10}") ? ext : "";
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Integer.parseInt(hash.substring(0, 2), 16) % LOCK_STRIPES];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return "/uploads/" + filename;
     }
-}
\ No newline at end of file
+}
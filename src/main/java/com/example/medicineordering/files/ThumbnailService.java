@@ -0,0 +1,348 @@
+package com.example.medicineordering.files;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background JPEG thumbnails for uploaded images (prescription scans, proof-of-delivery and issue
+ * photos), so review pages load a few tens of KB per file instead of the full phone photo.
+ *
+ * Each upload gets a row in dbo.DerivativeJobs (one per stored file, so identical uploads share a
+ * thumbnail) and is handed to a bounded pool of app.thumbnails.workers threads once the upload's
+ * transaction commits. A full queue doesn't block the upload: the job just stays PENDING (and a job
+ * the poller claimed but couldn't queue goes back unclaimed, its attempt not counted). Every
+ * app.thumbnails.poll-seconds a poller claims due jobs from the table: PENDING ones, RETRY ones whose
+ * backoff has passed, and RUNNING ones abandoned by a crash. So a job survives restarts and failures.
+ * A job that fails app.thumbnails.max-attempts times is marked FAILED. Files ImageIO can't read (PDFs
+ * included; there is no PDF renderer on the classpath) are marked SKIPPED and keep their plain link.
+ *
+ * Thumbnails are written to uploads/thumbs/ mirroring the source's path, with a .jpg extension.
+ * StorageService.release() deletes the job and the thumbnail with the last reference to the source.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final String THUMBS = "thumbs/";
+
+    private final JdbcTemplate jdbc;
+    private final StorageService storage;
+    private final int maxEdge;
+    private final int maxAttempts;
+    private final int pollSeconds;
+    private final ThreadPoolExecutor workers;
+    private ScheduledExecutorService poller;
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public ThumbnailService(JdbcTemplate jdbc, StorageService storage,
+                            @Value("${app.thumbnails.max-edge:320}") int maxEdge,
+                            @Value("${app.thumbnails.max-attempts:5}") int maxAttempts,
+                            @Value("${app.thumbnails.poll-seconds:30}") int pollSeconds,
+                            @Value("${app.thumbnails.workers:2}") int workerCount,
+                            @Value("${app.thumbnails.queue-capacity:100}") int queueCapacity) {
+        this.jdbc = jdbc;
+        this.storage = storage;
+        this.maxEdge = Math.max(16, maxEdge);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.pollSeconds = Math.max(1, pollSeconds);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "thumbnail-worker-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                },
+                // Queue full: callers catch this and leave the job in the table for the poller
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue a thumbnail for a stored file (URL or path). Does nothing if it already has a job.
+     * Inside a transaction, the work starts once it commits.
+     */
+    public void enqueue(String location) {
+        if (location == null) return;
+        String sourcePath = storage.relativePath(location);
+        if (sourcePath == null) return;
+        jdbc.update("IF NOT EXISTS (SELECT 1 FROM dbo.DerivativeJobs WITH (UPDLOCK, HOLDLOCK) WHERE sourcePath = ?) " +
+                    "INSERT INTO dbo.DerivativeJobs (sourcePath, status) VALUES (?, 'PENDING')", sourcePath, sourcePath);
+        Runnable submit = () -> {
+            try {
+                workers.execute(() -> claimAndRun(sourcePath));
+            } catch (RejectedExecutionException e) {
+                // Still PENDING (nothing was claimed), so the poller picks it up later
+                deferred.incrementAndGet();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit.run();
+                }
+            });
+        } else {
+            submit.run();
+        }
+    }
+
+    /**
+     * Thumbnail URLs of the stored files that have one.
+     * @return location (as given) -> /uploads/thumbs/... URL
+     */
+    public Map<String, String> thumbnailUrls(Collection<String> locations) {
+        Map<String, String> byRelative = new HashMap<>();
+        for (String location : locations) {
+            String relative = location != null ? storage.relativePath(location) : null;
+            if (relative != null) byRelative.put(relative, location);
+        }
+        if (byRelative.isEmpty()) return Collections.emptyMap();
+        String placeholders = String.join(",", Collections.nCopies(byRelative.size(), "?"));
+        Map<String, String> urls = new HashMap<>();
+        jdbc.query("SELECT sourcePath, derivedPath FROM dbo.DerivativeJobs WHERE status = 'DONE' AND sourcePath IN (" +
+                   placeholders + ")", rs -> {
+            urls.put(byRelative.get(rs.getString(1)), "/uploads/" + rs.getString(2));
+        }, byRelative.keySet().toArray());
+        return urls;
+    }
+
+    @PostConstruct
+    public void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "thumbnail-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::pollDueJobs, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Claim due jobs (as many as the queue has room for) and run them on the workers.
+     */
+    public void pollDueJobs() {
+        try {
+            int room = workers.getQueue().remainingCapacity();
+            if (room == 0) return;
+            List<Map<String, Object>> claimed = jdbc.queryForList(
+                    "UPDATE TOP (?) dbo.DerivativeJobs WITH (READPAST, ROWLOCK) " +
+                    "SET status = 'RUNNING', attempts = attempts + 1, updatedAt = SYSUTCDATETIME() " +
+                    "OUTPUT inserted.id, inserted.sourcePath, inserted.attempts " +
+                    "WHERE (status IN ('PENDING', 'RETRY') AND nextAttemptAt <= SYSUTCDATETIME()) " +
+                    "OR (status = 'RUNNING' AND updatedAt < DATEADD(MINUTE, -10, SYSUTCDATETIME()))", room);
+            for (Map<String, Object> job : claimed) {
+                int id = ((Number) job.get("id")).intValue();
+                String sourcePath = (String) job.get("sourcePath");
+                int attempts = ((Number) job.get("attempts")).intValue();
+                try {
+                    workers.execute(() -> run(id, sourcePath, attempts));
+                } catch (RejectedExecutionException e) {
+                    // Claimed but never started: put it back without spending the attempt
+                    deferred.incrementAndGet();
+                    jdbc.update("UPDATE dbo.DerivativeJobs SET status = CASE WHEN attempts > 1 THEN 'RETRY' ELSE 'PENDING' END, " +
+                                "attempts = attempts - 1, updatedAt = SYSUTCDATETIME() WHERE id = ? AND status = 'RUNNING'", id);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Thumbnail poll failed: " + e.getMessage());
+        }
+    }
+
+    // Claim the job of a just-uploaded file; nothing to do if the poller or another upload got it first
+    private void claimAndRun(String sourcePath) {
+        try {
+            List<Map<String, Object>> claimed = jdbc.queryForList(
+                    "UPDATE dbo.DerivativeJobs SET status = 'RUNNING', attempts = attempts + 1, updatedAt = SYSUTCDATETIME() " +
+                    "OUTPUT inserted.id, inserted.attempts WHERE sourcePath = ? AND status = 'PENDING'", sourcePath);
+            if (!claimed.isEmpty()) {
+                Map<String, Object> job = claimed.get(0);
+                run(((Number) job.get("id")).intValue(), sourcePath, ((Number) job.get("attempts")).intValue());
+            }
+        } catch (Exception e) {
+            System.err.println("Could not start thumbnail for " + sourcePath + ": " + e.getMessage());
+        }
+    }
+
+    private void run(int jobId, String sourcePath, int attempts) {
+        try {
+            BufferedImage image = sourcePath.toLowerCase(Locale.ROOT).endsWith(".pdf")
+                    ? null : readSubsampled(storage.resolve(sourcePath));
+            if (image == null) {
+                skipped.incrementAndGet();
+                finish(jobId, "SKIPPED", null, "Not an image ImageIO can read");
+                return;
+            }
+            String derivedPath = THUMBS + sourcePath.replaceFirst("\\.[^./]*$", "") + ".jpg";
+            Path dest = storage.resolve(derivedPath);
+            writeJpeg(scaleDown(image), dest);
+            if (finish(jobId, "DONE", derivedPath, null) == 0) {
+                // The source was released (and its job deleted) while this ran
+                Files.deleteIfExists(dest);
+                return;
+            }
+            generated.incrementAndGet();
+        } catch (Exception e) {
+            String message = e.getClass().getSimpleName() + ": " + e.getMessage();
+            if (attempts >= maxAttempts) {
+                failed.incrementAndGet();
+                finish(jobId, "FAILED", null, message);
+                System.err.println("Thumbnail for " + sourcePath + " failed after " + attempts + " attempts: " + message);
+            } else {
+                // Back off 1, 2, 4, ... minutes before the poller tries again
+                jdbc.update("UPDATE dbo.DerivativeJobs SET status = 'RETRY', lastError = ?, updatedAt = SYSUTCDATETIME(), " +
+                            "nextAttemptAt = DATEADD(MINUTE, ?, SYSUTCDATETIME()) WHERE id = ?",
+                            truncate(message), 1 << Math.min(attempts - 1, 10), jobId);
+            }
+        }
+    }
+
+    private int finish(int jobId, String status, String derivedPath, String error) {
+        return jdbc.update("UPDATE dbo.DerivativeJobs SET status = ?, derivedPath = ?, lastError = ?, updatedAt = SYSUTCDATETIME() " +
+                    "WHERE id = ?", status, derivedPath, truncate(error), jobId);
+    }
+
+    // Decode only every n-th pixel of a large photo (still at least twice maxEdge), so a 12 MP
+    // image never has to be held in memory at full size
+    private BufferedImage readSubsampled(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, longest / (maxEdge * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Halve the size step by step (better quality than one big bilinear step), then scale to maxEdge
+    private BufferedImage scaleDown(BufferedImage source) {
+        BufferedImage current = flatten(source);
+        int w = current.getWidth();
+        int h = current.getHeight();
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(w, h));
+        int targetW = Math.max(1, (int) Math.round(w * scale));
+        int targetH = Math.max(1, (int) Math.round(h * scale));
+        while (w != targetW || h != targetH) {
+            w = Math.max(targetW, w / 2);
+            h = Math.max(targetH, h / 2);
+            current = resize(current, w, h);
+        }
+        return current;
+    }
+
+    // JPEG has no alpha: draw transparent images on white
+    private static BufferedImage flatten(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_INT_RGB) return source;
+        BufferedImage rgb = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, rgb.getWidth(), rgb.getHeight());
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    private static BufferedImage resize(BufferedImage source, int w, int h) {
+        BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, w, h, null);
+        g.dispose();
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+        Path temp = Files.createTempFile(dest.getParent(), "thumb", ".part");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.8f);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        try {
+            Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", workers.getQueue().size());
+        stats.put("generated", generated.get());
+        stats.put("deferred", deferred.get());
+        stats.put("skipped", skipped.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.medicineordering.model;
+
+import java.util.List;
+
+/**
+ * CartView Model Class
+ * A customer's cart as shown on the cart page: every line priced with the medicine's
+ * current price and stock, plus the cart total computed by the database.
+ */
+public class CartView {
+    private final List<Cart> items;
+    private final double totalAmount;
+
+    public CartView(List<Cart> items, double totalAmount) {
+        this.items = items;
+        this.totalAmount = totalAmount;
+    }
+
+    public List<Cart> getItems() {
+        return items;
+    }
+
+    public double getTotalAmount() {
+        return totalAmount;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.medicineordering.model;
+
+import java.util.List;
+
+/**
+ * CatalogPage Model Class
+ * One page of the customer catalog, ordered by (name, id).
+ * The next page starts right after (nextAfterName, nextAfterId) - a keyset cursor,
+ * so loading page 50 costs the same as loading page 1.
+ */
+public class CatalogPage {
+    private final List<Medicine> items;
+    private final boolean hasMore;
+    private final String nextAfterName;
+    private final int nextAfterId;
+
+    public CatalogPage(List<Medicine> items, boolean hasMore) {
+        this.items = items;
+        this.hasMore = hasMore;
+        Medicine last = items.isEmpty() ? null : items.get(items.size() - 1);
+        this.nextAfterName = last == null ? null : last.getName();
+        this.nextAfterId = last == null ? 0 : last.getId();
+    }
+
+    public List<Medicine> getItems() {
+        return items;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public String getNextAfterName() {
+        return nextAfterName;
+    }
+
+    public int getNextAfterId() {
+        return nextAfterId;
+    }
+}
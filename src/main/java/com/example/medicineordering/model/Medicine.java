@@ -10,6 +10,8 @@ public class Medicine {
     private int stockLevel;
     private boolean requiresPrescription;
     private String imageUrl;
+    // dbo.Medicines.rowVersion as a number; 0 when it wasn't loaded (e.g. rows from the catalog cache)
+    private long version;
 
     public Medicine() {
     }
@@ -23,6 +25,19 @@ public class Medicine {
         this.requiresPrescription = requiresPrescription;
     }
 
+    // Copy constructor (used by the in-memory catalog so cached rows are never shared with callers)
+    public Medicine(Medicine other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.category = other.category;
+        this.description = other.description;
+        this.price = other.price;
+        this.stockLevel = other.stockLevel;
+        this.requiresPrescription = other.requiresPrescription;
+        this.imageUrl = other.imageUrl;
+        this.version = other.version;
+    }
+
     public int getId() {
         return id;
     }
@@ -86,6 +101,14 @@ public class Medicine {
     public void setImageUrl(String imageUrl) {
         this.imageUrl = imageUrl;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
 
 
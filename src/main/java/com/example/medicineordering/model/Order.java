@@ -18,4 +18,8 @@ public class Order {
     private String status;
     private LocalDateTime orderDate;
     private int itemCount;
+    // Users.id of the customer who placed the order (0 = unknown, e.g. orders from before the column existed)
+    private int customerId;
+    // Client-supplied key (scoped to the customer) that makes resubmitting the same order a no-op
+    private String idempotencyKey;
 }
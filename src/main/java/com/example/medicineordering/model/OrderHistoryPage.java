@@ -0,0 +1,32 @@
+package com.example.medicineordering.model;
+
+import java.util.List;
+
+/**
+ * OrderHistoryPage Model Class
+ * One page of a customer's orders, newest first.
+ * The next (older) page starts below nextBeforeId - a keyset cursor on the order ID.
+ */
+public class OrderHistoryPage {
+    private final List<Order> orders;
+    private final boolean hasMore;
+    private final int nextBeforeId;
+
+    public OrderHistoryPage(List<Order> orders, boolean hasMore) {
+        this.orders = orders;
+        this.hasMore = hasMore;
+        this.nextBeforeId = orders.isEmpty() ? 0 : orders.get(orders.size() - 1).getId();
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public int getNextBeforeId() {
+        return nextBeforeId;
+    }
+}
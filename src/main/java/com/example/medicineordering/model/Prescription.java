@@ -18,6 +18,7 @@ public class Prescription {
     private LocalDateTime uploadDate;  // When the file was uploaded
     private String status;    // Status like PENDING, APPROVED, REJECTED
     private String rejectionReason; // Reason for rejection if status is REJECTED
+    private Integer reviewerId; // Pharmacist currently holding the review lease (null when free)
 
 
     public Prescription() {
@@ -107,6 +108,14 @@ public class Prescription {
     public void setRejectionReason(String rejectionReason) {
         this.rejectionReason = rejectionReason;
     }
+
+    public Integer getReviewerId() {
+        return reviewerId;
+    }
+
+    public void setReviewerId(Integer reviewerId) {
+        this.reviewerId = reviewerId;
+    }
 }
 
 
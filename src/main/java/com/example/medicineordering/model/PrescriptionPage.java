@@ -0,0 +1,32 @@
+package com.example.medicineordering.model;
+
+import java.util.List;
+
+/**
+ * PrescriptionPage Model Class
+ * One page of prescriptions, newest first.
+ * The next (older) page starts below nextBeforeId - a keyset cursor on the prescription ID.
+ */
+public class PrescriptionPage {
+    private final List<Prescription> prescriptions;
+    private final boolean hasMore;
+    private final int nextBeforeId;
+
+    public PrescriptionPage(List<Prescription> prescriptions, boolean hasMore) {
+        this.prescriptions = prescriptions;
+        this.hasMore = hasMore;
+        this.nextBeforeId = prescriptions.isEmpty() ? 0 : prescriptions.get(prescriptions.size() - 1).getId();
+    }
+
+    public List<Prescription> getPrescriptions() {
+        return prescriptions;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public int getNextBeforeId() {
+        return nextBeforeId;
+    }
+}
@@ -1,12 +1,16 @@
 package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.CartView;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Cart Repository Class
@@ -28,16 +32,80 @@ public class CartRepository {
      */
     public List<Cart> findByCustomerId(int customerId) {
         String sql = "SELECT * FROM dbo.Carts WHERE customerId = ? ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Cart.class), customerId);
+        return jdbc.query(sql, RowMappers.cart(), customerId);
     }
 
     /**
-     * CRUD: CREATE - Add a new item to the cart
+     * CRUD: READ - The customer's cart for the cart page, in one query.
+     * Each line is joined with dbo.Medicines for the current name, price, category and stock,
+     * and the total (SUM of quantity * price) comes back as a window column on every row.
+     * Lines whose medicine was deleted are returned as "Medicine Not Found" with price 0.
+     */
+    public CartView findViewByCustomerId(int customerId) {
+        String sql = "SELECT c.id, c.customerId, c.medicineId, c.quantity, c.createdAt, " +
+                     "COALESCE(m.name, 'Medicine Not Found') AS medicineName, " +
+                     "COALESCE(m.price, 0) AS price, " +
+                     "COALESCE(m.category, 'Unknown') AS category, " +
+                     "COALESCE(m.stockLevel, 0) AS stockLevel, " +
+                     "COALESCE(m.requiresPrescription, 0) AS requiresPrescription, " +
+                     "SUM(c.quantity * COALESCE(m.price, 0)) OVER () AS cartTotal " +
+                     "FROM dbo.Carts c " +
+                     "LEFT JOIN dbo.Medicines m ON m.id = c.medicineId " +
+                     "WHERE c.customerId = ? " +
+                     "ORDER BY c.id DESC";
+        RowMapper<Cart> mapper = RowMappers.cart();
+        List<Cart> items = new ArrayList<>();
+        double[] total = new double[1];
+        jdbc.query(sql, rs -> {
+            items.add(mapper.mapRow(rs, items.size()));
+            total[0] = rs.getDouble("cartTotal");
+        }, customerId);
+        return new CartView(items, total[0]);
+    }
+
+    /**
+     * CRUD: CREATE - Add an item to the cart, or add to its quantity if the medicine is already there
      * This happens when customer clicks Add to Cart on a medicine
+     * One atomic MERGE (HOLDLOCK, so two concurrent adds can't both insert); the unique index
+     * UX_Carts_Customer_Medicine guarantees one row per (customerId, medicineId).
+     * @return The ID of the cart row
      */
-    public void addItem(int customerId, int medicineId, int quantity) {
-        String sql = "INSERT INTO dbo.Carts (customerId, medicineId, quantity) VALUES (?,?,?)";
-        jdbc.update(sql, customerId, medicineId, quantity);
+    public int addItem(int customerId, int medicineId, int quantity) {
+        String sql = """
+            MERGE dbo.Carts WITH (HOLDLOCK) AS T
+            USING (SELECT ? AS customerId, ? AS medicineId, ? AS quantity) AS S
+            ON T.customerId = S.customerId AND T.medicineId = S.medicineId
+            WHEN MATCHED THEN
+                UPDATE SET quantity = T.quantity + S.quantity
+            WHEN NOT MATCHED THEN
+                INSERT (customerId, medicineId, quantity) VALUES (S.customerId, S.medicineId, S.quantity)
+            OUTPUT inserted.id;
+            """;
+        Integer id = jdbc.queryForObject(sql, Integer.class, customerId, medicineId, quantity);
+        return id != null ? id : 0;
+    }
+
+    /**
+     * CRUD: CREATE - Add several medicines to the customer's cart in one batch (same MERGE as addItem)
+     * Used when a guest cart is merged into the customer's cart on login
+     */
+    public void addItems(int customerId, Map<Integer, Integer> quantities) {
+        if (quantities.isEmpty()) return;
+        String sql = """
+            MERGE dbo.Carts WITH (HOLDLOCK) AS T
+            USING (SELECT ? AS customerId, ? AS medicineId, ? AS quantity) AS S
+            ON T.customerId = S.customerId AND T.medicineId = S.medicineId
+            WHEN MATCHED THEN
+                UPDATE SET quantity = T.quantity + S.quantity
+            WHEN NOT MATCHED THEN
+                INSERT (customerId, medicineId, quantity) VALUES (S.customerId, S.medicineId, S.quantity);
+            """;
+        List<Map.Entry<Integer, Integer>> lines = new ArrayList<>(quantities.entrySet());
+        jdbc.batchUpdate(sql, lines, lines.size(), (ps, line) -> {
+            ps.setInt(1, customerId);
+            ps.setInt(2, line.getKey());
+            ps.setInt(3, line.getValue());
+        });
     }
 
     /**
@@ -67,13 +135,39 @@ public class CartRepository {
         jdbc.update(sql, customerId);
     }
     
+    /**
+     * CRUD: DELETE - Remove the given cart lines of one customer in a single statement (per 1000 lines)
+     * Used by checkout so lines added while the order was being processed stay in the cart
+     */
+    public void removeItems(int customerId, List<Integer> ids) {
+        // Chunked to stay well under SQL Server's 2100 parameter limit
+        for (int from = 0; from < ids.size(); from += 1000) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + 1000));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            String sql = "DELETE FROM dbo.Carts WHERE customerId = ? AND id IN (" + placeholders + ")";
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(customerId);
+            args.addAll(chunk);
+            jdbc.update(sql, args.toArray());
+        }
+    }
+
+    /**
+     * Quantity of a medicine in the customer's cart (0 when it isn't there)
+     */
+    public int findQuantity(int customerId, int medicineId) {
+        String sql = "SELECT quantity FROM dbo.Carts WHERE customerId = ? AND medicineId = ?";
+        List<Integer> quantities = jdbc.queryForList(sql, Integer.class, customerId, medicineId);
+        return quantities.isEmpty() ? 0 : quantities.get(0);
+    }
+
     /**
      * Find a cart item by its ID
      */
     public Cart findById(int id) {
         String sql = "SELECT id, customerId, medicineId, quantity FROM dbo.Carts WHERE id = ?";
         try {
-            return jdbc.queryForObject(sql, new BeanPropertyRowMapper<>(Cart.class), id);
+            return jdbc.queryForObject(sql, RowMappers.cart(), id);
         } catch (Exception e) {
             return null;
         }
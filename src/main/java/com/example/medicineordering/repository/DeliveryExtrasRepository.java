@@ -35,7 +35,7 @@ public class DeliveryExtrasRepository {
                 o.deliveryAddress,
                 o.deliveryWindow,
                 COALESCE(TRY_CAST(o.weight AS float), 0)     AS weight,
-                1                                            AS itemCount,
+                COALESCE(ic.itemCount, 0)                    AS itemCount,
                 'normal'                                     AS priority,
                 ''                                           AS customerPhone,   -- use your real column if you have it
                 CONVERT(varchar(5),
@@ -43,6 +43,8 @@ public class DeliveryExtrasRepository {
             FROM dbo.Deliveries d
             JOIN dbo.Orders o            ON o.id = d.orderId
             LEFT JOIN dbo.DeliveryTimeline t ON t.deliveryId = d.id
+            OUTER APPLY (SELECT COUNT(*) AS itemCount
+                         FROM dbo.OrderItems oi WHERE oi.orderId = o.id) ic
             WHERE d.driverId = ? AND d.status = 'Assigned'
             ORDER BY d.id DESC
             """;
@@ -2,10 +2,13 @@ package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.Delivery;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,10 +22,19 @@ public class DeliveryRepository {
         this.jdbc = jdbc;
     }
 
-    public void assignDriver(int orderId, int driverId) {
-        jdbc.update("INSERT INTO Deliveries(orderId, driverId, status) VALUES (?, ?, 'Assigned')",
-                orderId, driverId);
+    // Returns the ID of the new delivery row
+    public int assignDriver(int orderId, int driverId) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO Deliveries(orderId, driverId, status) VALUES (?, ?, 'Assigned')",
+                    Statement.RETURN_GENERATED_KEYS);
+            ps.setInt(1, orderId);
+            ps.setInt(2, driverId);
+            return ps;
+        }, keyHolder);
         jdbc.update("UPDATE Orders SET status = 'Assigned' WHERE id = ?", orderId);
+        return keyHolder.getKey() != null ? keyHolder.getKey().intValue() : 0;
     }
 
     public void updateStatus(int deliveryId, String status, String notes) {
@@ -46,17 +58,17 @@ public class DeliveryRepository {
 
     public Optional<Delivery> findById(int id) {
         String sql = "SELECT * FROM Deliveries WHERE id = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Delivery.class), id)
+        return jdbc.query(sql, RowMappers.delivery(), id)
                 .stream().findFirst();
     }
 
     public List<Delivery> findActive() {
         String sql = "SELECT * FROM Deliveries WHERE status IN ('Assigned','picked_up','in_transit','delivered')";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Delivery.class));
+        return jdbc.query(sql, RowMappers.delivery());
     }
 
     public List<Delivery> findByDriver(int driverId) {
         String sql = "SELECT * FROM Deliveries WHERE driverId = ? ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Delivery.class), driverId);
+        return jdbc.query(sql, RowMappers.delivery(), driverId);
     }
 }
@@ -2,10 +2,13 @@ package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.Driver;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,31 +24,45 @@ public class DriverRepository {
 
     public List<Driver> findAll() {
         return jdbc.query("SELECT * FROM Drivers ORDER BY name",
-                new BeanPropertyRowMapper<>(Driver.class));
+                RowMappers.driver());
     }
 
     public List<Driver> findAvailableDrivers() {
         return jdbc.query("SELECT * FROM Drivers WHERE available = 1 ORDER BY name",
-                new BeanPropertyRowMapper<>(Driver.class));
+                RowMappers.driver());
     }
 
     public Optional<Driver> findById(int id) {
         String sql = "SELECT * FROM Drivers WHERE id = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Driver.class), id)
+        return jdbc.query(sql, RowMappers.driver(), id)
                 .stream().findFirst();
     }
 
     public Optional<Driver> findByEmail(String email) {
         String sql = "SELECT * FROM Drivers WHERE email = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Driver.class), email)
+        return jdbc.query(sql, RowMappers.driver(), email)
                 .stream().findFirst();
     }
 
     public void save(Driver d) {
         String sql = "INSERT INTO Drivers(name,email,phone,passwordHash,vehicleType,licensePlate,serviceArea,available) " +
                 "VALUES (?,?,?,?,?,?,?,?)";
-        jdbc.update(sql, d.getName(), d.getEmail(), d.getPhone(), d.getPasswordHash(),
-                d.getVehicleType(), d.getLicensePlate(), d.getServiceArea(), d.isAvailable());
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, d.getName());
+            ps.setString(2, d.getEmail());
+            ps.setString(3, d.getPhone());
+            ps.setString(4, d.getPasswordHash());
+            ps.setString(5, d.getVehicleType());
+            ps.setString(6, d.getLicensePlate());
+            ps.setString(7, d.getServiceArea());
+            ps.setBoolean(8, d.isAvailable());
+            return ps;
+        }, keyHolder);
+        if (keyHolder.getKey() != null) {
+            d.setId(keyHolder.getKey().intValue());
+        }
     }
 
     public void deleteById(int id) {
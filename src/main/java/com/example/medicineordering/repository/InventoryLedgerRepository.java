@@ -0,0 +1,120 @@
+package com.example.medicineordering.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inventory movement ledger (dbo.InventoryMovements) and its snapshots (dbo.InventorySnapshots).
+ * Every change to dbo.Medicines.stockLevel appends one movement row with the signed quantity and
+ * the balance after it. MedicineRepository writes the row from the UPDATE/INSERT itself with
+ * OUTPUT ... INTO (see logTo), so recording it costs no extra statement and never updates a shared row.
+ *
+ * A snapshot stores a medicine's level as of one movement id. The level according to the ledger is
+ * therefore its latest snapshot plus the movements after it: an index seek on (medicineId, id), not
+ * a scan of the whole history.
+ */
+@Repository
+public class InventoryLedgerRepository {
+
+    public static final String INITIAL = "INITIAL";
+    public static final String SALE = "SALE";
+    public static final String CANCEL = "CANCEL";
+    public static final String RESTOCK = "RESTOCK";
+    public static final String ADJUSTMENT = "ADJUSTMENT";
+    public static final String BUDGET_OUT = "BUDGET_OUT";
+    public static final String BUDGET_RETURN = "BUDGET_RETURN";
+
+    static final Set<String> TYPES = Set.of(INITIAL, SALE, CANCEL, RESTOCK, ADJUSTMENT, BUDGET_OUT, BUDGET_RETURN);
+
+    // Snapshots only cover movements at least this old, so a transaction still writing movements can't be skipped
+    private static final String SETTLED = "mv.createdAt < DATEADD(MINUTE, -1, SYSUTCDATETIME())";
+
+    private final JdbcTemplate jdbc;
+
+    @Autowired
+    public InventoryLedgerRepository(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * OUTPUT clause that appends the rows changed by a dbo.Medicines UPDATE (or INSERT, with
+     * forInsert) to the ledger. With withReference, the clause takes one "?" parameter: the order id.
+     */
+    static String logTo(String movementType, boolean forInsert, boolean withReference) {
+        if (!TYPES.contains(movementType)) {
+            throw new IllegalArgumentException("Unknown inventory movement type: " + movementType);
+        }
+        String quantity = forInsert ? "inserted.stockLevel" : "inserted.stockLevel - deleted.stockLevel";
+        return "OUTPUT inserted.id, '" + movementType + "', " + quantity + ", inserted.stockLevel, " +
+               (withReference ? "?" : "NULL") + " " +
+               "INTO dbo.InventoryMovements (medicineId, movementType, quantity, balanceAfter, referenceId) ";
+    }
+
+    /**
+     * A medicine's stock level computed from its latest snapshot and the movements after it.
+     */
+    public int levelFromLedger(int medicineId) {
+        String sql = "SELECT COALESCE(s.stockLevel, 0) + COALESCE((SELECT SUM(mv.quantity) FROM dbo.InventoryMovements mv " +
+                     "WHERE mv.medicineId = ? AND mv.id > COALESCE(s.movementId, 0)), 0) " +
+                     "FROM (SELECT 1 AS one) d " +
+                     "OUTER APPLY (SELECT TOP 1 stockLevel, movementId FROM dbo.InventorySnapshots " +
+                     "WHERE medicineId = ? ORDER BY movementId DESC) s";
+        Integer level = jdbc.queryForObject(sql, Integer.class, medicineId, medicineId);
+        return level != null ? level : 0;
+    }
+
+    /**
+     * Medicines whose stockLevel doesn't match the ledger: medicineId, stockLevel, ledgerLevel.
+     */
+    public List<Map<String, Object>> findDrift() {
+        String sql = "SELECT m.id AS medicineId, m.stockLevel, l.ledgerLevel FROM dbo.Medicines m " +
+                     "OUTER APPLY (SELECT TOP 1 stockLevel, movementId FROM dbo.InventorySnapshots " +
+                     "WHERE medicineId = m.id ORDER BY movementId DESC) s " +
+                     "CROSS APPLY (SELECT COALESCE(s.stockLevel, 0) + COALESCE(SUM(mv.quantity), 0) AS ledgerLevel " +
+                     "FROM dbo.InventoryMovements mv WHERE mv.medicineId = m.id AND mv.id > COALESCE(s.movementId, 0)) l " +
+                     "WHERE m.stockLevel <> l.ledgerLevel";
+        return jdbc.queryForList(sql);
+    }
+
+    /**
+     * Record a snapshot for every medicine that has settled movements after its latest snapshot.
+     * @return The number of snapshots written
+     */
+    public int takeSnapshots() {
+        String sql = "INSERT INTO dbo.InventorySnapshots (medicineId, movementId, stockLevel) " +
+                     "SELECT m.id, x.lastId, COALESCE(s.stockLevel, 0) + x.delta FROM dbo.Medicines m " +
+                     "OUTER APPLY (SELECT TOP 1 stockLevel, movementId FROM dbo.InventorySnapshots " +
+                     "WHERE medicineId = m.id ORDER BY movementId DESC) s " +
+                     "CROSS APPLY (SELECT MAX(mv.id) AS lastId, SUM(mv.quantity) AS delta FROM dbo.InventoryMovements mv " +
+                     "WHERE mv.medicineId = m.id AND mv.id > COALESCE(s.movementId, 0) AND " + SETTLED + ") x " +
+                     "WHERE x.lastId IS NOT NULL";
+        return jdbc.update(sql);
+    }
+
+    /**
+     * First snapshot for medicines that have none yet (stock that existed before the ledger):
+     * their current stockLevel as of their latest movement.
+     * @return The number of snapshots written
+     */
+    public int takeBaselineSnapshots() {
+        String sql = "INSERT INTO dbo.InventorySnapshots (medicineId, movementId, stockLevel) " +
+                     "SELECT m.id, COALESCE((SELECT MAX(mv.id) FROM dbo.InventoryMovements mv WHERE mv.medicineId = m.id), 0), m.stockLevel " +
+                     "FROM dbo.Medicines m WITH (UPDLOCK) " +
+                     "WHERE NOT EXISTS (SELECT 1 FROM dbo.InventorySnapshots s WHERE s.medicineId = m.id)";
+        return jdbc.update(sql);
+    }
+
+    /**
+     * A medicine's most recent movements, newest first (for audits).
+     */
+    public List<Map<String, Object>> findMovements(int medicineId, int limit) {
+        String sql = "SELECT TOP (?) id, movementType, quantity, balanceAfter, referenceId, createdAt " +
+                     "FROM dbo.InventoryMovements WHERE medicineId = ? ORDER BY id DESC";
+        return jdbc.queryForList(sql, limit, medicineId);
+    }
+}
@@ -1,61 +1,162 @@
 package com.example.medicineordering.repository;
 
+import com.example.medicineordering.cache.MedicineCatalogCache;
+import com.example.medicineordering.model.CatalogPage;
 import com.example.medicineordering.model.Medicine;
+import com.example.medicineordering.search.MedicineSearchIndex;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 @Repository
 public class MedicineRepository {
 
+    /** Largest page the catalog browsing API will return */
+    public static final int MAX_PAGE_SIZE = 60;
+
+    /** Catalog order used for browsing and keyset paging: lower-cased name, then id */
+    public static final Comparator<Medicine> CATALOG_ORDER = MedicineCatalogCache.CATALOG_ORDER;
+
+    /** Columns patchDetails() may write (never stockLevel) */
+    private static final Set<String> PATCHABLE = Set.of("name", "category", "description", "price", "requiresPrescription", "imageUrl");
+
     private final JdbcTemplate jdbc;
+    private final MedicineCatalogCache cache;
+    private final MedicineSearchIndex searchIndex;
 
     @Autowired
-    public MedicineRepository(JdbcTemplate jdbc) {
+    public MedicineRepository(JdbcTemplate jdbc, MedicineCatalogCache cache, MedicineSearchIndex searchIndex) {
         this.jdbc = jdbc;
+        this.cache = cache;
+        this.searchIndex = searchIndex;
     }
 
     /**
      * CRUD: READ - Fetches all available medicines. (Required for customer home/search view)
-     * @return A list of all Medicine objects.
+     * Served from the catalog cache; the database is only hit when the cached list is stale.
+     * @return A read-only list of all in-stock Medicine objects.
      */
     public List<Medicine> findAll() {
-        String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE stockLevel > 0 ORDER BY name";
-        // BeanPropertyRowMapper maps SQL columns to Java object fields automatically
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Medicine.class));
+        return cache.getCatalog(this::loadInStock, this::loadRows);
     }
 
     /**
      * Fetches a single medicine by ID. (Useful for displaying details)
+     * Served from the catalog cache when possible.
      * @param id The ID of the medicine.
      * @return The Medicine object or null if not found.
      */
     public Medicine findById(int id) {
-        String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE id = ?";
-        return jdbc.queryForObject(sql, new BeanPropertyRowMapper<>(Medicine.class), id);
+        return cache.get(id, () -> {
+            String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE id = ?";
+            return jdbc.queryForObject(sql, RowMappers.medicine(), id);
+        });
     }
 
-    // Simple search by name or category (beginner-friendly LIKE queries)
+    /**
+     * Catalog cache statistics (size, hits, misses, evictions)
+     */
+    public Map<String, Object> getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Search in-stock medicines by name and/or category (case-insensitive "contains").
+     * Uses the trigram search index once it has been built; until then it falls back to
+     * filtering the cached catalog. With no search terms this is the same as findAll().
+     */
     public List<Medicine> search(String name, String category) {
-        String base = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE stockLevel > 0";
-        if (name != null && name.trim().length() > 0 && category != null && category.trim().length() > 0) {
-            return jdbc.query(base + " AND name LIKE ? AND category LIKE ? ORDER BY name",
-                    new BeanPropertyRowMapper<>(Medicine.class), "%" + name + "%", "%" + category + "%");
+        boolean hasName = name != null && name.trim().length() > 0;
+        boolean hasCategory = category != null && category.trim().length() > 0;
+        if (!hasName && !hasCategory) {
+            return findAll();
+        }
+        if (searchIndex.isReady()) {
+            return searchIndex.search(name, category);
+        }
+        String nameTerm = hasName ? name.toLowerCase(Locale.ROOT) : null;
+        String categoryTerm = hasCategory ? category.toLowerCase(Locale.ROOT) : null;
+        List<Medicine> result = new ArrayList<>();
+        for (Medicine m : findAll()) {
+            if (nameTerm != null && (m.getName() == null || !m.getName().toLowerCase(Locale.ROOT).contains(nameTerm))) {
+                continue;
+            }
+            if (categoryTerm != null && (m.getCategory() == null || !m.getCategory().toLowerCase(Locale.ROOT).contains(categoryTerm))) {
+                continue;
+            }
+            result.add(m);
         }
-        if (name != null && name.trim().length() > 0) {
-            return jdbc.query(base + " AND name LIKE ? ORDER BY name",
-                    new BeanPropertyRowMapper<>(Medicine.class), "%" + name + "%");
+        return result;
+    }
+
+    /**
+     * Keyset-paginated catalog browsing (ordered by name, id).
+     * Returns the in-stock medicines that come right after (afterName, afterId), optionally
+     * filtered by name/category. Pass a null afterName for the first page. The page size is
+     * capped at MAX_PAGE_SIZE, so each request only ever holds one page of rows.
+     */
+    public CatalogPage findPage(String name, String category, String afterName, int afterId, int pageSize) {
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        boolean hasName = name != null && name.trim().length() > 0;
+        boolean hasCategory = category != null && category.trim().length() > 0;
+
+        List<Medicine> rows;
+        if ((hasName || hasCategory) && searchIndex.isReady()) {
+            rows = searchIndex.searchPage(name, category, afterName, afterId, limit);
+        } else if (!hasName && !hasCategory) {
+            // Straight from the cached catalog's sorted map, without materializing the whole list
+            rows = cache.getCatalogPage(afterName, afterId, limit + 1, this::loadInStock, this::loadRows);
+        } else {
+            // The fallback search result is already in CATALOG_ORDER,
+            // so the cursor position is found with a binary search
+            List<Medicine> source = search(name, category);
+            int start = 0;
+            if (afterName != null) {
+                Medicine cursor = new Medicine();
+                cursor.setName(afterName);
+                cursor.setId(afterId);
+                int at = Collections.binarySearch(source, cursor, CATALOG_ORDER);
+                start = at >= 0 ? at + 1 : -at - 1;
+            }
+            rows = new ArrayList<>(source.subList(start, Math.min(source.size(), start + limit + 1)));
         }
-        if (category != null && category.trim().length() > 0) {
-            return jdbc.query(base + " AND category LIKE ? ORDER BY name",
-                    new BeanPropertyRowMapper<>(Medicine.class), "%" + category + "%");
+
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows = rows.subList(0, limit);
         }
-        return jdbc.query(base + " ORDER BY name", new BeanPropertyRowMapper<>(Medicine.class));
+        return new CatalogPage(rows, hasMore);
     }
-    
+
+    /**
+     * Rebuild the search index from every row in dbo.Medicines (in or out of stock).
+     * Called at startup and then periodically, so changes made outside the app are picked up;
+     * writes committed while it runs are kept.
+     * @return The number of medicines indexed.
+     */
+    public int rebuildSearchIndex() {
+        String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines";
+        return searchIndex.rebuild(() -> jdbc.query(sql, RowMappers.medicine()), this::loadRows);
+    }
+
     /**
      * Check if medicine has enough stock for the requested quantity
      */
@@ -70,8 +171,16 @@ public class MedicineRepository {
      */
     public boolean reduceStock(int medicineId, int quantity) {
         try {
-            String sql = "UPDATE dbo.Medicines SET stockLevel = stockLevel - ? WHERE id = ? AND stockLevel >= ?";
+            String sql = "UPDATE dbo.Medicines SET stockLevel = stockLevel - ? " +
+                         InventoryLedgerRepository.logTo(InventoryLedgerRepository.SALE, false, false) +
+                         "WHERE id = ? AND stockLevel >= ?";
             int rowsAffected = jdbc.update(sql, quantity, medicineId, quantity);
+            if (rowsAffected > 0) {
+                afterCommit(() -> {
+                    cache.adjustStock(medicineId, -quantity);
+                    searchIndex.adjustStock(medicineId, -quantity);
+                });
+            }
             return rowsAffected > 0;
         } catch (Exception e) {
             System.err.println("Error reducing stock for medicine " + medicineId + ": " + e.getMessage());
@@ -94,50 +203,296 @@ public class MedicineRepository {
     }
     
     /**
-     * Restore stock quantity when an order is cancelled
+     * Put units back on stockLevel
+     * @param movementType how the ledger records it, e.g. InventoryLedgerRepository.RESTOCK
      */
-    public boolean restoreStock(int medicineId, int quantity) {
+    public boolean restoreStock(int medicineId, int quantity, String movementType) {
         try {
-            String sql = "UPDATE dbo.Medicines SET stockLevel = stockLevel + ? WHERE id = ?";
+            String sql = "UPDATE dbo.Medicines SET stockLevel = stockLevel + ? " +
+                         InventoryLedgerRepository.logTo(movementType, false, false) +
+                         "WHERE id = ?";
             int rowsAffected = jdbc.update(sql, quantity, medicineId);
+            if (rowsAffected > 0) {
+                afterCommit(() -> {
+                    cache.adjustStock(medicineId, quantity);
+                    searchIndex.adjustStock(medicineId, quantity);
+                });
+            }
             return rowsAffected > 0;
         } catch (Exception e) {
             System.err.println("Error restoring stock for medicine " + medicineId + ": " + e.getMessage());
             return false;
         }
     }
-    
+
+    /**
+     * Reduce stock for several medicines in one batched round trip.
+     * Stock held for other customers' carts (live rows in dbo.StockReservations) can't be taken;
+     * the buyer's own holds can, which is how checkout turns a hold into a decrement.
+     * Rows are updated in medicineId order so concurrent checkouts lock them in the same order.
+     * The cache and search index are only updated once the surrounding transaction commits.
+     * @param quantities medicineId -> quantity to take
+     * @param customerId the buyer (Users.id)
+     * @param orderId the order the stock is for (recorded in the inventory ledger)
+     * @return IDs of the medicines that did not have enough stock (empty when everything was reduced)
+     */
+    public List<Integer> reduceStockBatch(Map<Integer, Integer> quantities, int customerId, int orderId) {
+        List<Map.Entry<Integer, Integer>> rows = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+        String sql = "UPDATE m SET stockLevel = m.stockLevel - ? " +
+                     InventoryLedgerRepository.logTo(InventoryLedgerRepository.SALE, false, true) +
+                     "FROM dbo.Medicines m " +
+                     "WHERE m.id = ? AND m.stockLevel - (SELECT COALESCE(SUM(r.quantity), 0) FROM dbo.StockReservations r " +
+                     "WHERE r.medicineId = m.id AND r.customerId <> ? AND r.expiresAt > SYSUTCDATETIME()) >= ?";
+        int[] counts = jdbc.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map.Entry<Integer, Integer> row = rows.get(i);
+                ps.setInt(1, row.getValue());
+                ps.setInt(2, orderId);
+                ps.setInt(3, row.getKey());
+                ps.setInt(4, customerId);
+                ps.setInt(5, row.getValue());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+
+        List<Integer> failed = new ArrayList<>();
+        Map<Integer, Integer> reduced = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (counts[i] == 0) {
+                failed.add(rows.get(i).getKey());
+            } else {
+                reduced.put(rows.get(i).getKey(), -rows.get(i).getValue());
+            }
+        }
+        afterCommit(() -> reduced.forEach((id, delta) -> {
+            cache.adjustStock(id, delta);
+            searchIndex.adjustStock(id, delta);
+        }));
+        return failed;
+    }
+
+    /**
+     * Take up to maxQuantity units of a medicine off stockLevel in one statement, leaving
+     * everything held in carts (live dbo.StockReservations) alone. Used by HotStockService to
+     * pull a budget of units it then sells from memory.
+     * @return The number of units taken (0 when none are free)
+     */
+    public int takeStock(int medicineId, int maxQuantity) {
+        String sql = "UPDATE m SET stockLevel = m.stockLevel - p.quantity " +
+                     InventoryLedgerRepository.logTo(InventoryLedgerRepository.BUDGET_OUT, false, false) +
+                     "OUTPUT p.quantity " +
+                     "FROM dbo.Medicines m " +
+                     "CROSS APPLY (SELECT COALESCE(SUM(r.quantity), 0) AS held FROM dbo.StockReservations r " +
+                     "WHERE r.medicineId = m.id AND r.expiresAt > SYSUTCDATETIME()) h " +
+                     "CROSS APPLY (SELECT CASE WHEN m.stockLevel - h.held < ? THEN m.stockLevel - h.held ELSE ? END AS quantity) p " +
+                     "WHERE m.id = ? AND m.stockLevel - h.held > 0";
+        List<Integer> taken = jdbc.queryForList(sql, Integer.class, maxQuantity, maxQuantity, medicineId);
+        int quantity = taken.isEmpty() ? 0 : taken.get(0);
+        if (quantity > 0) {
+            afterCommit(() -> {
+                cache.adjustStock(medicineId, -quantity);
+                searchIndex.adjustStock(medicineId, -quantity);
+            });
+        }
+        return quantity;
+    }
+
+    /**
+     * Put the stock of all of an order's items back on the shelf in one statement
+     * (dbo.OrderItems summed per medicine and joined into a single UPDATE).
+     * The caller must make sure this runs once per order (OrderCancellationService claims Orders.restockedAt first).
+     * The cache and search index are only updated once the surrounding transaction commits.
+     * @return medicineId -> quantity restored
+     */
+    public Map<Integer, Integer> restoreStockForOrder(int orderId) {
+        String sql = "UPDATE m SET stockLevel = m.stockLevel + t.quantity " +
+                     InventoryLedgerRepository.logTo(InventoryLedgerRepository.CANCEL, false, true) +
+                     "OUTPUT inserted.id, t.quantity " +
+                     "FROM dbo.Medicines m " +
+                     "JOIN (SELECT medicineId, SUM(quantity) AS quantity FROM dbo.OrderItems " +
+                     "WHERE orderId = ? GROUP BY medicineId) t ON t.medicineId = m.id";
+        Map<Integer, Integer> restored = new HashMap<>();
+        jdbc.query(sql, rs -> {
+            restored.put(rs.getInt(1), rs.getInt(2));
+        }, orderId, orderId);
+        afterCommit(() -> restored.forEach((id, delta) -> {
+            cache.adjustStock(id, delta);
+            searchIndex.adjustStock(id, delta);
+        }));
+        return restored;
+    }
+
+    /**
+     * Current prices for the given medicines, one query per 1000 IDs (a single one for any normal cart).
+     * @return medicineId -> price; IDs that don't exist are missing from the map
+     */
+    public Map<Integer, Double> findPrices(Collection<Integer> ids) {
+        Map<Integer, Double> prices = new HashMap<>();
+        List<Integer> all = new ArrayList<>(ids);
+        // Chunked to stay well under SQL Server's 2100 parameter limit
+        for (int from = 0; from < all.size(); from += 1000) {
+            List<Integer> chunk = all.subList(from, Math.min(all.size(), from + 1000));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            String sql = "SELECT id, price FROM dbo.Medicines WHERE id IN (" + placeholders + ")";
+            jdbc.query(sql, rs -> {
+                prices.put(rs.getInt(1), rs.getDouble(2));
+            }, chunk.toArray());
+        }
+        return prices;
+    }
+
+    // Run now, or after commit when called inside a transaction (a rollback leaves the cache alone)
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
     /**
      * Find medicines by name (for pharmacist operations)
      */
     public List<Medicine> findByName(String name) {
         String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE name = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Medicine.class), name);
+        return jdbc.query(sql, RowMappers.medicine(), name);
     }
     
+    /**
+     * All medicines, in or out of stock, read from the database with their row version
+     * (for the pharmacist's medicine list; the catalog cache doesn't carry versions).
+     */
+    public List<Medicine> findAllWithVersion() {
+        String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl, " +
+                     "CAST(rowVersion AS BIGINT) AS rowVersion FROM dbo.Medicines ORDER BY name, id";
+        return jdbc.query(sql, RowMappers.medicine());
+    }
+
+    /**
+     * Set the stock level, but only if the row is still at expectedVersion.
+     * Any change to the row moves its version on, including checkout decrements, so a count entered
+     * against an outdated level is refused instead of silently undoing the sales made since.
+     * @return false on a version conflict or when the medicine no longer exists; nothing is changed
+     */
+    public boolean updateStock(int id, int stockLevel, long expectedVersion) {
+        String sql = "UPDATE dbo.Medicines SET stockLevel = ? " +
+                     InventoryLedgerRepository.logTo(InventoryLedgerRepository.ADJUSTMENT, false, false) +
+                     "OUTPUT inserted.stockLevel - deleted.stockLevel " +
+                     "WHERE id = ? AND rowVersion = CAST(? AS BINARY(8))";
+        List<Integer> deltas = jdbc.queryForList(sql, Integer.class, stockLevel, id, expectedVersion);
+        if (deltas.isEmpty()) {
+            return false;
+        }
+        int delta = deltas.get(0);
+        afterCommit(() -> {
+            cache.adjustStock(id, delta);
+            searchIndex.adjustStock(id, delta);
+        });
+        return true;
+    }
+
+    /**
+     * Field-level update of catalog details. Only the given columns are written and stockLevel never
+     * is, so a price or description edit can't race with checkout.
+     * @param fields column -> new value; only name, category, description, price,
+     *               requiresPrescription and imageUrl are accepted
+     * @return The medicine as saved, or null when it doesn't exist
+     */
+    public Medicine patchDetails(int id, Map<String, Object> fields) {
+        if (fields.isEmpty()) {
+            return findById(id);
+        }
+        StringBuilder set = new StringBuilder();
+        List<Object> args = new ArrayList<>(fields.size() + 1);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!PATCHABLE.contains(field.getKey())) {
+                throw new IllegalArgumentException("Field can't be patched: " + field.getKey());
+            }
+            set.append(set.length() == 0 ? "" : ", ").append(field.getKey()).append(" = ?");
+            args.add(field.getValue());
+        }
+        args.add(id);
+        String sql = "UPDATE dbo.Medicines SET " + set + " " +
+                     "OUTPUT inserted.id, inserted.name, inserted.category, inserted.description, inserted.price, " +
+                     "inserted.stockLevel, inserted.requiresPrescription, inserted.imageUrl, CAST(inserted.rowVersion AS BIGINT) AS rowVersion " +
+                     "WHERE id = ?";
+        List<Medicine> saved = jdbc.query(sql, RowMappers.medicine(), args.toArray());
+        if (saved.isEmpty()) {
+            return null;
+        }
+        Medicine row = saved.get(0);
+        afterCommit(() -> {
+            cache.put(cacheable(row));
+            searchIndex.upsert(row);
+        });
+        return row;
+    }
+
     /**
      * Save or update a medicine (for pharmacist operations)
+     * An update with a version (read by findAllWithVersion) writes every column and fails with
+     * OptimisticLockingFailureException if the row changed since; without one only the details are patched.
      */
     public Medicine save(Medicine medicine) {
         if (medicine.getId() == 0) {
-            // Insert new medicine
-            String sql = "INSERT INTO dbo.Medicines (name, category, description, price, stockLevel, requiresPrescription, imageUrl) VALUES (?, ?, ?, ?, ?, ?, ?)";
-            jdbc.update(sql, medicine.getName(), medicine.getCategory(), medicine.getDescription(), 
-                       medicine.getPrice(), medicine.getStockLevel(), medicine.isRequiresPrescription(), medicine.getImageUrl());
-            
-            // Get the generated ID
-            String getIdSql = "SELECT id FROM dbo.Medicines WHERE name = ? AND category = ?";
-            Integer id = jdbc.queryForObject(getIdSql, Integer.class, medicine.getName(), medicine.getCategory());
+            // Insert new medicine; its opening stock goes into the ledger from the same statement
+            String sql = "INSERT INTO dbo.Medicines (name, category, description, price, stockLevel, requiresPrescription, imageUrl) " +
+                         InventoryLedgerRepository.logTo(InventoryLedgerRepository.INITIAL, true, false) +
+                         "OUTPUT inserted.id VALUES (?, ?, ?, ?, ?, ?, ?)";
+            // The generated ID comes back with the INSERT itself (no follow-up SELECT by name)
+            Integer id = jdbc.queryForObject(sql, Integer.class, medicine.getName(), medicine.getCategory(),
+                       medicine.getDescription(), medicine.getPrice(), medicine.getStockLevel(),
+                       medicine.isRequiresPrescription(), medicine.getImageUrl());
             if (id != null) {
                 medicine.setId(id);
             }
+        } else if (medicine.getVersion() != 0) {
+            // Update every column, but only if the row is still at the version that was read
+            // (checkout decrements change it too, so stock sold in the meantime is never overwritten).
+            // When the stock is unchanged only the details are written, so no empty ADJUSTMENT is logged.
+            String detailsSql = "UPDATE dbo.Medicines SET name = ?, category = ?, description = ?, price = ?, requiresPrescription = ?, imageUrl = ? " +
+                                "WHERE id = ? AND rowVersion = CAST(? AS BINARY(8)) AND stockLevel = ?";
+            int rows = jdbc.update(detailsSql, medicine.getName(), medicine.getCategory(), medicine.getDescription(),
+                       medicine.getPrice(), medicine.isRequiresPrescription(), medicine.getImageUrl(),
+                       medicine.getId(), medicine.getVersion(), medicine.getStockLevel());
+            if (rows == 0) {
+                String sql = "UPDATE dbo.Medicines SET name = ?, category = ?, description = ?, price = ?, stockLevel = ?, requiresPrescription = ?, imageUrl = ? " +
+                             InventoryLedgerRepository.logTo(InventoryLedgerRepository.ADJUSTMENT, false, false) +
+                             "WHERE id = ? AND rowVersion = CAST(? AS BINARY(8))";
+                rows = jdbc.update(sql, medicine.getName(), medicine.getCategory(), medicine.getDescription(),
+                       medicine.getPrice(), medicine.getStockLevel(), medicine.isRequiresPrescription(),
+                       medicine.getImageUrl(), medicine.getId(), medicine.getVersion());
+            }
+            if (rows == 0) {
+                throw new OptimisticLockingFailureException("Medicine " + medicine.getId() + " was changed since it was loaded");
+            }
         } else {
-            // Update existing medicine
-            String sql = "UPDATE dbo.Medicines SET name = ?, category = ?, description = ?, price = ?, stockLevel = ?, requiresPrescription = ?, imageUrl = ? WHERE id = ?";
-            jdbc.update(sql, medicine.getName(), medicine.getCategory(), medicine.getDescription(), 
-                       medicine.getPrice(), medicine.getStockLevel(), medicine.isRequiresPrescription(), 
-                       medicine.getImageUrl(), medicine.getId());
+            // No version known: only the catalog details are written, never the stock
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("name", medicine.getName());
+            fields.put("category", medicine.getCategory());
+            fields.put("description", medicine.getDescription());
+            fields.put("price", medicine.getPrice());
+            fields.put("requiresPrescription", medicine.isRequiresPrescription());
+            fields.put("imageUrl", medicine.getImageUrl());
+            Medicine saved = patchDetails(medicine.getId(), fields);
+            return saved != null ? saved : medicine;
         }
+        Medicine row = cacheable(medicine);
+        afterCommit(() -> {
+            cache.put(row);
+            searchIndex.upsert(row);
+        });
         return medicine;
     }
     
@@ -154,6 +509,10 @@ public class MedicineRepository {
             // Then delete the medicine
             String deleteMedicineSql = "DELETE FROM dbo.Medicines WHERE id = ?";
             int deletedMedicines = jdbc.update(deleteMedicineSql, id);
+            afterCommit(() -> {
+                cache.evict(id);
+                searchIndex.remove(id);
+            });
             
             if (deletedMedicines == 0) {
                 throw new RuntimeException("Medicine with ID " + id + " not found or could not be deleted");
@@ -166,4 +525,34 @@ public class MedicineRepository {
             throw new RuntimeException("Failed to delete medicine: " + e.getMessage(), e);
         }
     }
+
+    private List<Medicine> loadInStock() {
+        String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines WHERE stockLevel > 0 ORDER BY name, id";
+        // RowMappers.medicine() maps SQL columns to Java object fields by column position
+        List<Medicine> medicines = jdbc.query(sql, RowMappers.medicine());
+        // Re-sort in Java so paging cursors compare exactly like the list is ordered
+        medicines.sort(CATALOG_ORDER);
+        return medicines;
+    }
+
+    // Current rows of the given medicines, used by the cache and the search index to refresh rows written while they loaded
+    private List<Medicine> loadRows(Collection<Integer> ids) {
+        List<Medicine> rows = new ArrayList<>(ids.size());
+        List<Integer> all = new ArrayList<>(ids);
+        // Chunked to stay well under SQL Server's 2100 parameter limit
+        for (int from = 0; from < all.size(); from += 1000) {
+            List<Integer> chunk = all.subList(from, Math.min(all.size(), from + 1000));
+            String sql = "SELECT id, name, category, description, price, stockLevel, requiresPrescription, imageUrl FROM dbo.Medicines " +
+                         "WHERE id IN (" + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+            rows.addAll(jdbc.query(sql, RowMappers.medicine(), chunk.toArray()));
+        }
+        return rows;
+    }
+
+    // Cached copies carry no row version, like rows read by findById (only findAllWithVersion hands one out)
+    private static Medicine cacheable(Medicine medicine) {
+        Medicine copy = new Medicine(medicine);
+        copy.setVersion(0);
+        return copy;
+    }
 }
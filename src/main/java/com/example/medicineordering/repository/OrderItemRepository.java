@@ -2,10 +2,13 @@ package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.OrderItem;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.List;
 
 /**
@@ -26,10 +29,39 @@ public class OrderItemRepository {
         
         for (int i = 0; i < items.size(); i++) {
             OrderItem item = items.get(i);
-            jdbc.update(sql, orderId, item.getMedicineId(), item.getQuantity(), item.getPrice());
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                ps.setInt(1, orderId);
+                ps.setInt(2, item.getMedicineId());
+                ps.setInt(3, item.getQuantity());
+                ps.setDouble(4, item.getPrice());
+                return ps;
+            }, keyHolder);
+            item.setOrderId(orderId);
+            if (keyHolder.getKey() != null) {
+                item.setId(keyHolder.getKey().intValue());
+            }
         }
     }
     
+    /**
+     * Save all items of an order in one batched round trip (used by checkout).
+     * Generated IDs are not read back; nothing on the checkout path needs them.
+     */
+    public void saveOrderItemsBatch(int orderId, List<OrderItem> items) {
+        String sql = "INSERT INTO dbo.OrderItems (orderId, medicineId, quantity, price) VALUES (?, ?, ?, ?)";
+        jdbc.batchUpdate(sql, items, items.size(), (ps, item) -> {
+            ps.setInt(1, orderId);
+            ps.setInt(2, item.getMedicineId());
+            ps.setInt(3, item.getQuantity());
+            ps.setDouble(4, item.getPrice());
+        });
+        for (OrderItem item : items) {
+            item.setOrderId(orderId);
+        }
+    }
+
     /**
      * Get all items for a specific order
      */
@@ -39,7 +71,7 @@ public class OrderItemRepository {
                      "FROM dbo.OrderItems oi " +
                      "LEFT JOIN dbo.Medicines m ON oi.medicineId = m.id " +
                      "WHERE oi.orderId = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(OrderItem.class), orderId);
+        return jdbc.query(sql, RowMappers.orderItem(), orderId);
     }
     
     /**
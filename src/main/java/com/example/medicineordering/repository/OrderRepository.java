@@ -1,11 +1,16 @@
 package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.OrderHistoryPage;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,25 +27,32 @@ public class OrderRepository {
     // Pending = orders ready for assignment
     public List<Order> findPendingOrders() {
         String sql = "SELECT * FROM Orders WHERE status IN ('Pending','Ready') ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Order.class));
+        return jdbc.query(sql, RowMappers.order());
     }
 
     // Unscheduled = not yet given a time window (null/empty)
     public List<Order> findUnscheduledOrders() {
         String sql = "SELECT * FROM Orders WHERE (deliveryWindow IS NULL OR LTRIM(RTRIM(deliveryWindow)) = '') " +
                 "AND status IN ('Pending','Ready') ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Order.class));
+        return jdbc.query(sql, RowMappers.order());
     }
 
     public Optional<Order> findById(int id) {
         String sql = "SELECT * FROM Orders WHERE id = ?";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Order.class), id)
+        return jdbc.query(sql, RowMappers.order(), id)
+                .stream().findFirst();
+    }
+
+    // The order that was placed with this idempotency key, if any (unique index UX_Orders_IdempotencyKey)
+    public Optional<Order> findByIdempotencyKey(String idempotencyKey) {
+        String sql = "SELECT * FROM Orders WHERE idempotencyKey = ?";
+        return jdbc.query(sql, RowMappers.order(), idempotencyKey)
                 .stream().findFirst();
     }
 
     public List<Order> findAll() {
         String sql = "SELECT * FROM Orders ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Order.class));
+        return jdbc.query(sql, RowMappers.order());
     }
 
     public void updateOrderStatus(int id, String status) {
@@ -53,21 +65,28 @@ public class OrderRepository {
 
     // Save a new order and return the saved order with generated ID
     public Order save(Order order) {
-        String sql = "INSERT INTO dbo.Orders (orderNumber, customerName, deliveryAddress, deliveryWindow, weight, status) VALUES (?, ?, ?, ?, ?, ?)";
-        jdbc.update(sql, 
-            order.getOrderNumber(),
-            order.getCustomerName(),
-            order.getDeliveryAddress(),
-            order.getDeliveryWindow(),
-            order.getWeight(),
-            order.getStatus()
-        );
-        
-        // Get the generated ID
-        String getIdSql = "SELECT TOP 1 id FROM dbo.Orders WHERE orderNumber = ? ORDER BY id DESC";
-        Integer generatedId = jdbc.queryForObject(getIdSql, Integer.class, order.getOrderNumber());
-        if (generatedId != null) {
-            order.setId(generatedId);
+        String sql = "INSERT INTO dbo.Orders (orderNumber, customerName, deliveryAddress, deliveryWindow, weight, status, idempotencyKey, customerId) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, order.getOrderNumber());
+            ps.setString(2, order.getCustomerName());
+            ps.setString(3, order.getDeliveryAddress());
+            ps.setString(4, order.getDeliveryWindow());
+            ps.setDouble(5, order.getWeight());
+            ps.setString(6, order.getStatus());
+            ps.setString(7, order.getIdempotencyKey());
+            if (order.getCustomerId() > 0) {
+                ps.setInt(8, order.getCustomerId());
+            } else {
+                ps.setNull(8, Types.INTEGER);
+            }
+            return ps;
+        }, keyHolder);
+
+        // The generated ID comes back with the INSERT itself
+        if (keyHolder.getKey() != null) {
+            order.setId(keyHolder.getKey().intValue());
         }
         
         return order;
@@ -79,9 +98,35 @@ public class OrderRepository {
         jdbc.update(sql, id);
     }
 
+    /**
+     * One page of a customer's order history, newest first, with item counts.
+     * Keyset pagination on id (index IX_Orders_Customer): pass beforeId = 0 for the first page,
+     * then page.getNextBeforeId() for the next one.
+     */
+    public OrderHistoryPage findByCustomer(int customerId, int beforeId, int limit) {
+        String sql = "SELECT TOP (?) o.id, o.orderNumber, o.customerName, o.deliveryAddress, o.deliveryWindow, " +
+                     "o.weight, o.status, o.orderDate, o.customerId, " +
+                     "(SELECT COUNT(*) FROM dbo.OrderItems oi WHERE oi.orderId = o.id) AS itemCount " +
+                     "FROM dbo.Orders o " +
+                     "WHERE o.customerId = ?" + (beforeId > 0 ? " AND o.id < ?" : "") + " " +
+                     "ORDER BY o.id DESC";
+        // One extra row tells whether there is an older page
+        List<Order> rows = beforeId > 0
+                ? jdbc.query(sql, RowMappers.order(), limit + 1, customerId, beforeId)
+                : jdbc.query(sql, RowMappers.order(), limit + 1, customerId);
+        boolean hasMore = rows.size() > limit;
+        return new OrderHistoryPage(hasMore ? rows.subList(0, limit) : rows, hasMore);
+    }
+
+    // Number of orders a customer has placed
+    public int countByCustomer(int customerId) {
+        Integer count = jdbc.queryForObject("SELECT COUNT(*) FROM dbo.Orders WHERE customerId = ?", Integer.class, customerId);
+        return count != null ? count : 0;
+    }
+
     // Find recent orders (for customer order history)
     public List<Order> findRecent(int limit) {
         String sql = "SELECT TOP " + limit + " * FROM dbo.Orders ORDER BY id DESC";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(Order.class));
+        return jdbc.query(sql, RowMappers.order());
     }
 }
@@ -1,6 +1,7 @@
 package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.Prescription;
+import com.example.medicineordering.model.PrescriptionPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -13,16 +14,23 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class PrescriptionRepository {
 
     private final JdbcTemplate jdbc;
+    private final SchemaCapabilities schemaCapabilities;
 
     @Autowired
-    public PrescriptionRepository(JdbcTemplate jdbc) {
+    public PrescriptionRepository(JdbcTemplate jdbc, SchemaCapabilities schemaCapabilities) {
         this.jdbc = jdbc;
+        this.schemaCapabilities = schemaCapabilities;
     }
 
     // Custom RowMapper for Prescription to handle LocalDateTime conversion
@@ -45,105 +53,146 @@ public class PrescriptionRepository {
             
             prescription.setStatus(rs.getString("status"));
             prescription.setRejectionReason(rs.getString("rejectionReason"));
+            prescription.setReviewerId(rs.getObject("reviewerId", Integer.class));
             return prescription;
         }
     }
 
     public List<Prescription> findByCustomerId(int customerId) {
-        // Check if rejectionReason column exists first
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-        
-        String sql;
-        if (hasRejectionReasonColumn) {
-            sql = "SELECT p.*, c.name as customerName, p.rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.customerId = ? ORDER BY p.id DESC";
-        } else {
-            sql = "SELECT p.*, c.name as customerName, NULL as rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.customerId = ? ORDER BY p.id DESC";
-        }
-        
+        String sql = selectWithCustomer() + "WHERE p.customerId = ? ORDER BY p.id DESC";
         return jdbc.query(sql, new PrescriptionRowMapper(), customerId);
     }
 
     public List<Prescription> findAll() {
-        // Check if rejectionReason column exists first
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-        
-        String sql;
-        if (hasRejectionReasonColumn) {
-            sql = "SELECT p.*, c.name as customerName, p.rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "ORDER BY p.id DESC";
-        } else {
-            sql = "SELECT p.*, c.name as customerName, NULL as rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "ORDER BY p.id DESC";
-        }
-        
+        String sql = selectWithCustomer() + "ORDER BY p.id DESC";
         return jdbc.query(sql, new PrescriptionRowMapper());
     }
 
     public List<Prescription> findById(int id) {
-        // Check if rejectionReason column exists first
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-        
-        String sql;
-        if (hasRejectionReasonColumn) {
-            sql = "SELECT p.*, c.name as customerName, p.rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.id = ?";
-        } else {
-            sql = "SELECT p.*, c.name as customerName, NULL as rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.id = ?";
-        }
-        
+        String sql = selectWithCustomer() + "WHERE p.id = ?";
         return jdbc.query(sql, new PrescriptionRowMapper(), id);
     }
 
     public List<Prescription> findByStatus(String status) {
-        // Check if rejectionReason column exists first
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-        
-        String sql;
-        if (hasRejectionReasonColumn) {
-            sql = "SELECT p.*, c.name as customerName, p.rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.status = ? ORDER BY p.id DESC";
-        } else {
-            sql = "SELECT p.*, c.name as customerName, NULL as rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.status = ? ORDER BY p.id DESC";
-        }
-        
+        String sql = selectWithCustomer() + "WHERE p.status = ? ORDER BY p.id DESC";
         return jdbc.query(sql, new PrescriptionRowMapper(), status);
     }
 
+    // Older databases have no rejectionReason column; p.* includes it when there is one
+    private boolean hasRejectionReasonColumn() {
+        return schemaCapabilities.hasColumn("Prescriptions", "rejectionReason");
+    }
+
+    // Review leases (claimedBy/leaseExpiresAt) came later too
+    private boolean hasLeaseColumns() {
+        return schemaCapabilities.hasColumn("Prescriptions", "claimedBy");
+    }
+
+    private String selectWithCustomer() {
+        return "SELECT " + columnsWithCustomer();
+    }
+
+    private String columnsWithCustomer() {
+        return "p.*, c.name as customerName" + (hasRejectionReasonColumn() ? "" : ", NULL as rejectionReason") +
+               (hasLeaseColumns() ? ", CASE WHEN p.leaseExpiresAt > SYSUTCDATETIME() THEN p.claimedBy END as reviewerId"
+                                  : ", NULL as reviewerId") + " " +
+               "FROM dbo.Prescriptions p " +
+               "LEFT JOIN dbo.Customers c ON p.customerId = c.id ";
+    }
+
     /**
-     * Manually add rejectionReason column if it doesn't exist
+     * One page of all prescriptions, newest first (keyset pagination on the ID).
+     * @param beforeId only prescriptions with a lower ID (0 = from the newest)
+     */
+    public PrescriptionPage findPage(int beforeId, int limit) {
+        String sql = "SELECT TOP (?) " + columnsWithCustomer() +
+                     (beforeId > 0 ? "WHERE p.id < ? " : "") + "ORDER BY p.id DESC";
+        // One extra row tells whether there is an older page
+        List<Prescription> rows = beforeId > 0
+                ? jdbc.query(sql, new PrescriptionRowMapper(), limit + 1, beforeId)
+                : jdbc.query(sql, new PrescriptionRowMapper(), limit + 1);
+        boolean hasMore = rows.size() > limit;
+        return new PrescriptionPage(hasMore ? rows.subList(0, limit) : rows, hasMore);
+    }
+
+    public List<Prescription> findByIds(Collection<Integer> ids) {
+        if (ids.isEmpty()) return new ArrayList<>();
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        String sql = selectWithCustomer() + "WHERE p.id IN (" + placeholders + ") ORDER BY p.id";
+        return jdbc.query(sql, new PrescriptionRowMapper(), ids.toArray());
+    }
+
+    /**
+     * Number of prescriptions per status, in one aggregate query.
+     */
+    public Map<String, Integer> countByStatus() {
+        Map<String, Integer> counts = new HashMap<>();
+        jdbc.query("SELECT status, COUNT(*) FROM dbo.Prescriptions GROUP BY status",
+                rs -> {
+                    counts.put(rs.getString(1), rs.getInt(2));
+                });
+        return counts;
+    }
+
+    /**
+     * Lease up to limit free pending prescriptions to a pharmacist, oldest first.
+     * Rows another transaction is claiming are skipped instead of waited for (READPAST), so
+     * pharmacists claiming at the same time get different prescriptions. An expired lease is free.
+     * @return IDs of the newly leased prescriptions
+     */
+    public List<Integer> claimPending(int pharmacistId, int limit, int leaseSeconds) {
+        String sql = "WITH next AS (SELECT TOP (?) id, claimedBy, leaseExpiresAt FROM dbo.Prescriptions WITH (UPDLOCK, READPAST, ROWLOCK) " +
+                     "WHERE status = 'PENDING' AND (leaseExpiresAt IS NULL OR leaseExpiresAt <= SYSUTCDATETIME()) ORDER BY id) " +
+                     "UPDATE next SET claimedBy = ?, leaseExpiresAt = DATEADD(SECOND, ?, SYSUTCDATETIME()) " +
+                     "OUTPUT inserted.id";
+        return jdbc.queryForList(sql, Integer.class, limit, pharmacistId, leaseSeconds);
+    }
+
+    /**
+     * Extend the pharmacist's live leases.
+     * @return IDs of the prescriptions still leased to them
+     */
+    public List<Integer> renewLeases(int pharmacistId, int leaseSeconds) {
+        String sql = "UPDATE dbo.Prescriptions SET leaseExpiresAt = DATEADD(SECOND, ?, SYSUTCDATETIME()) " +
+                     "OUTPUT inserted.id " +
+                     "WHERE claimedBy = ? AND status = 'PENDING' AND leaseExpiresAt > SYSUTCDATETIME()";
+        return jdbc.queryForList(sql, Integer.class, leaseSeconds, pharmacistId);
+    }
+
+    /**
+     * Give a leased prescription back to the queue.
+     */
+    public void releaseLease(int id, int pharmacistId) {
+        jdbc.update("UPDATE dbo.Prescriptions SET claimedBy = NULL, leaseExpiresAt = NULL WHERE id = ? AND claimedBy = ?",
+                id, pharmacistId);
+    }
+
+    /**
+     * Approve or reject a pending prescription and drop its lease, unless another pharmacist
+     * holds a live lease on it or it was already decided.
+     * @return false when nothing was changed
+     */
+    public boolean decide(int id, int pharmacistId, String status, String rejectionReason) {
+        String sql = "UPDATE dbo.Prescriptions SET status = ?" +
+                     (hasRejectionReasonColumn() ? ", rejectionReason = ?" : "") +
+                     ", claimedBy = NULL, leaseExpiresAt = NULL " +
+                     "WHERE id = ? AND status = 'PENDING' " +
+                     "AND (claimedBy IS NULL OR claimedBy = ? OR leaseExpiresAt <= SYSUTCDATETIME())";
+        int updated = hasRejectionReasonColumn()
+                ? jdbc.update(sql, status, rejectionReason, id, pharmacistId)
+                : jdbc.update(sql, status, id, pharmacistId);
+        return updated > 0;
+    }
+
+    /**
+     * Manually add rejectionReason column if it doesn't exist (run once at startup, see SchemaCapabilityInitializer)
      */
     public void ensureRejectionReasonColumnExists() {
         try {
-            String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-            boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-            
-            if (!hasRejectionReasonColumn) {
+            if (!hasRejectionReasonColumn()) {
                 String addColumnSql = "ALTER TABLE dbo.Prescriptions ADD rejectionReason NVARCHAR(500) NULL";
                 jdbc.update(addColumnSql);
+                schemaCapabilities.refresh();
                 System.out.println("Added rejectionReason column to Prescriptions table");
             }
         } catch (Exception e) {
@@ -152,9 +201,7 @@ public class PrescriptionRepository {
     }
 
     public Prescription save(Prescription p) {
-        // Check if rejectionReason column exists
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
+        boolean hasRejectionReasonColumn = hasRejectionReasonColumn();
         
         try {
             if (p.getId() > 0) {
@@ -224,21 +271,7 @@ public class PrescriptionRepository {
     }
 
     public Prescription findByOrderId(int orderId) {
-        String checkColumnSql = "SELECT COUNT(*) FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'rejectionReason'";
-        boolean hasRejectionReasonColumn = jdbc.queryForObject(checkColumnSql, Integer.class) > 0;
-        
-        String sql;
-        if (hasRejectionReasonColumn) {
-            sql = "SELECT p.*, c.name as customerName, p.rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.orderId = ?";
-        } else {
-            sql = "SELECT p.*, c.name as customerName, NULL as rejectionReason " +
-                  "FROM dbo.Prescriptions p " +
-                  "LEFT JOIN dbo.Customers c ON p.customerId = c.id " +
-                  "WHERE p.orderId = ?";
-        }
+        String sql = selectWithCustomer() + "WHERE p.orderId = ?";
         
         System.out.println("Looking for prescription with orderId: " + orderId);
         List<Prescription> prescriptions = jdbc.query(sql, new PrescriptionRowMapper(), orderId);
@@ -0,0 +1,68 @@
+package com.example.medicineordering.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which optional columns the connected database has, for repositories that support older schemas
+ * (e.g. dbo.Prescriptions without rejectionReason). All dbo columns are read from sys.columns in one
+ * query, at startup (SchemaCapabilityInitializer) or on first use, and then answered from memory,
+ * so a repository method no longer needs its own sys.columns query.
+ *
+ * Call refresh() after changing the schema at runtime.
+ */
+@Repository
+public class SchemaCapabilities {
+
+    private final JdbcTemplate jdbc;
+
+    // Lower-case table name -> lower-case column names; replaced as a whole on refresh
+    private volatile Map<String, Set<String>> columns;
+
+    @Autowired
+    public SchemaCapabilities(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Whether dbo.[table] has the column (names are case-insensitive, like the database's).
+     */
+    public boolean hasColumn(String table, String column) {
+        Map<String, Set<String>> current = columns;
+        if (current == null) {
+            current = refresh();
+        }
+        Set<String> tableColumns = current.get(table.toLowerCase());
+        return tableColumns != null && tableColumns.contains(column.toLowerCase());
+    }
+
+    /**
+     * Read the columns of every dbo table again.
+     * @return The new column map
+     */
+    public synchronized Map<String, Set<String>> refresh() {
+        Map<String, Set<String>> loaded = new HashMap<>();
+        jdbc.query("SELECT t.name, c.name FROM sys.columns c " +
+                   "JOIN sys.tables t ON t.object_id = c.object_id " +
+                   "WHERE t.schema_id = SCHEMA_ID('dbo')", rs -> {
+            loaded.computeIfAbsent(rs.getString(1).toLowerCase(), k -> new HashSet<>())
+                  .add(rs.getString(2).toLowerCase());
+        });
+        columns = loaded;
+        return loaded;
+    }
+
+    /**
+     * Number of tables known (0 before the first load).
+     */
+    public int tableCount() {
+        Map<String, Set<String>> current = columns;
+        return current != null ? current.size() : 0;
+    }
+}
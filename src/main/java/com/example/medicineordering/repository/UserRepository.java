@@ -2,10 +2,13 @@ package com.example.medicineordering.repository;
 
 import com.example.medicineordering.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,7 +28,7 @@ public class UserRepository {
     public Optional<User> findByUsername(String username) {
         String sql = "SELECT id, username, passwordHash, role, email, fullName, phone, isActive, createdAt FROM dbo.Users WHERE username = ? AND isActive = 1";
         try {
-            User user = jdbc.queryForObject(sql, new BeanPropertyRowMapper<>(User.class), username);
+            User user = jdbc.queryForObject(sql, RowMappers.user(), username);
             return Optional.ofNullable(user);
         } catch (Exception e) {
             return Optional.empty();
@@ -38,7 +41,7 @@ public class UserRepository {
     public Optional<User> findById(int id) {
         String sql = "SELECT id, username, passwordHash, role, email, fullName, phone, isActive, createdAt FROM dbo.Users WHERE id = ? AND isActive = 1";
         try {
-            User user = jdbc.queryForObject(sql, new BeanPropertyRowMapper<>(User.class), id);
+            User user = jdbc.queryForObject(sql, RowMappers.user(), id);
             return Optional.ofNullable(user);
         } catch (Exception e) {
             return Optional.empty();
@@ -51,7 +54,7 @@ public class UserRepository {
     public Optional<User> findByEmail(String email) {
         String sql = "SELECT id, username, passwordHash, role, email, fullName, phone, isActive, createdAt FROM dbo.Users WHERE email = ? AND isActive = 1";
         try {
-            User user = jdbc.queryForObject(sql, new BeanPropertyRowMapper<>(User.class), email);
+            User user = jdbc.queryForObject(sql, RowMappers.user(), email);
             return Optional.ofNullable(user);
         } catch (Exception e) {
             return Optional.empty();
@@ -63,7 +66,7 @@ public class UserRepository {
      */
     public List<User> findByRole(String role) {
         String sql = "SELECT id, username, passwordHash, role, email, fullName, phone, isActive, createdAt FROM dbo.Users WHERE role = ? AND isActive = 1 ORDER BY fullName";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(User.class), role);
+        return jdbc.query(sql, RowMappers.user(), role);
     }
 
     /**
@@ -71,7 +74,7 @@ public class UserRepository {
      */
     public List<User> findAll() {
         String sql = "SELECT id, username, passwordHash, role, email, fullName, phone, isActive, createdAt FROM dbo.Users WHERE isActive = 1 ORDER BY role, fullName";
-        return jdbc.query(sql, new BeanPropertyRowMapper<>(User.class));
+        return jdbc.query(sql, RowMappers.user());
     }
 
     /**
@@ -79,8 +82,22 @@ public class UserRepository {
      */
     public User save(User user) {
         String sql = "INSERT INTO dbo.Users (username, passwordHash, role, email, fullName, phone, isActive, createdAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        jdbc.update(sql, user.getUsername(), user.getPasswordHash(), user.getRole(), 
-                   user.getEmail(), user.getFullName(), user.getPhone(), user.isActive(), user.getCreatedAt());
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, user.getUsername());
+            ps.setString(2, user.getPasswordHash());
+            ps.setString(3, user.getRole());
+            ps.setString(4, user.getEmail());
+            ps.setString(5, user.getFullName());
+            ps.setString(6, user.getPhone());
+            ps.setBoolean(7, user.isActive());
+            ps.setObject(8, user.getCreatedAt());
+            return ps;
+        }, keyHolder);
+        if (keyHolder.getKey() != null) {
+            user.setId(keyHolder.getKey().intValue());
+        }
         return user;
     }
 
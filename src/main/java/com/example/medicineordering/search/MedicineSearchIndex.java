@@ -0,0 +1,563 @@
+package com.example.medicineordering.search;
+
+import com.example.medicineordering.model.Medicine;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory trigram index over medicine names and categories.
+ * Every name and category is split into 3-character grams; each gram points to a
+ * sorted array of medicine IDs. A substring query intersects the postings of its
+ * grams and then checks the few remaining candidates, so it never scans the
+ * whole catalog the way LIKE '%x%' does.
+ *
+ * The index is rebuilt from dbo.Medicines at startup (and periodically, see SearchIndexInitializer)
+ * and MedicineRepository applies every write to it once the write has committed. Each write records
+ * a stamp for its medicine, so a rebuild re-reads the rows written while it loaded its snapshot
+ * before installing it, instead of losing those writes. Stock changes only touch an atomic counter
+ * per medicine under the read lock, so checkouts never block searches.
+ *
+ * Paged search keeps, per recent query, its text matches sorted in catalog order. That list only
+ * depends on names and categories, so stock changes don't invalidate it: a page binary-searches to
+ * its cursor and skips entries that are out of stock right now, instead of sorting every match.
+ */
+@Component
+public class MedicineSearchIndex {
+
+    private static final int GRAM = 3;
+    // Recent queries whose sorted matches are kept for paging
+    private static final int SORTED_QUERIES = 64;
+    // Rounds of re-reading rows written during a rebuild before it is installed regardless
+    private static final int MAX_RECHECKS = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // One rebuild at a time
+    private final Object rebuildLock = new Object();
+
+    private Tables tables = new Tables();
+    private volatile boolean ready;
+    // Bumped (under the write lock) whenever a name or category changes; stale sorted matches are rebuilt
+    private long textVersion;
+    private final Map<String, SortedMatches> sortedMatches = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SortedMatches> eldest) {
+            return size() > SORTED_QUERIES;
+        }
+    };
+
+    // Write stamps: each write takes the next stamp and records it for its medicine (while holding
+    // the index lock), so a rebuild started at stamp S knows exactly which rows changed after it began
+    private final AtomicLong stamp = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> writtenAt = new ConcurrentHashMap<>();
+
+    // One indexed medicine plus its lower-cased text, so queries don't re-lowercase it.
+    // The stock is kept apart so a sale can change it without the write lock.
+    private static final class Doc {
+        final Medicine medicine;
+        final String name;
+        final String category;
+        final AtomicInteger stock;
+
+        Doc(Medicine medicine) {
+            this.medicine = new Medicine(medicine);
+            this.name = lower(medicine.getName());
+            this.category = lower(medicine.getCategory());
+            this.stock = new AtomicInteger(medicine.getStockLevel());
+        }
+
+        boolean inStock() {
+            return stock.get() > 0;
+        }
+
+        // The medicine with its current stock
+        Medicine current() {
+            Medicine copy = new Medicine(medicine);
+            copy.setStockLevel(stock.get());
+            return copy;
+        }
+    }
+
+    // Documents and posting lists; the live ones are changed under the write lock only
+    private static final class Tables {
+        final Map<Integer, Doc> docs;
+        final Map<String, int[]> nameGrams;
+        final Map<String, int[]> categoryGrams;
+
+        Tables() {
+            this(new HashMap<>(), new HashMap<>(), new HashMap<>());
+        }
+
+        Tables(Map<Integer, Doc> docs, Map<String, int[]> nameGrams, Map<String, int[]> categoryGrams) {
+            this.docs = docs;
+            this.nameGrams = nameGrams;
+            this.categoryGrams = categoryGrams;
+        }
+
+        static Tables of(List<Medicine> medicines) {
+            List<Medicine> sorted = new ArrayList<>(medicines);
+            sorted.sort(Comparator.comparingInt(Medicine::getId));
+
+            Map<Integer, Doc> docs = new HashMap<>(sorted.size() * 2);
+            Map<String, IntBuffer> names = new HashMap<>();
+            Map<String, IntBuffer> categories = new HashMap<>();
+            // IDs are added in ascending order, so every posting list comes out sorted
+            for (Medicine m : sorted) {
+                Doc doc = new Doc(m);
+                docs.put(m.getId(), doc);
+                for (String gram : gramsOf(doc.name)) {
+                    names.computeIfAbsent(gram, g -> new IntBuffer()).add(m.getId());
+                }
+                for (String gram : gramsOf(doc.category)) {
+                    categories.computeIfAbsent(gram, g -> new IntBuffer()).add(m.getId());
+                }
+            }
+
+            Map<String, int[]> nameGrams = new HashMap<>(names.size() * 2);
+            names.forEach((gram, ids) -> nameGrams.put(gram, ids.toArray()));
+            Map<String, int[]> categoryGrams = new HashMap<>(categories.size() * 2);
+            categories.forEach((gram, ids) -> categoryGrams.put(gram, ids.toArray()));
+            return new Tables(docs, nameGrams, categoryGrams);
+        }
+
+        // Add or replace one medicine; true when its name or category changed
+        boolean upsert(Medicine medicine) {
+            Doc old = docs.get(medicine.getId());
+            remove(medicine.getId());
+            Doc doc = new Doc(medicine);
+            docs.put(medicine.getId(), doc);
+            for (String gram : gramsOf(doc.name)) {
+                nameGrams.put(gram, insertSorted(nameGrams.get(gram), medicine.getId()));
+            }
+            for (String gram : gramsOf(doc.category)) {
+                categoryGrams.put(gram, insertSorted(categoryGrams.get(gram), medicine.getId()));
+            }
+            return old == null || !old.name.equals(doc.name) || !old.category.equals(doc.category);
+        }
+
+        void remove(int id) {
+            Doc old = docs.remove(id);
+            if (old == null) return;
+            for (String gram : gramsOf(old.name)) {
+                removeFrom(nameGrams, gram, id);
+            }
+            for (String gram : gramsOf(old.category)) {
+                removeFrom(categoryGrams, gram, id);
+            }
+        }
+    }
+
+    // A query's text matches (in or out of stock) in catalog order, as of one textVersion
+    private static final class SortedMatches {
+        final long textVersion;
+        final String[] names;
+        final int[] ids;
+
+        SortedMatches(long textVersion, List<Doc> sorted) {
+            this.textVersion = textVersion;
+            this.names = new String[sorted.size()];
+            this.ids = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                names[i] = sorted.get(i).name;
+                ids[i] = sorted.get(i).medicine.getId();
+            }
+        }
+
+        // First position after (name, id) in catalog order
+        int indexAfter(String name, int id) {
+            int lo = 0;
+            int hi = ids.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = names[mid].compareTo(name);
+                if (c < 0 || (c == 0 && ids[mid] <= id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tables.docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the whole index with the given medicines (in or out of stock), which must be
+     * current: writes applied before this are dropped.
+     */
+    public void rebuild(List<Medicine> medicines) {
+        Tables built = Tables.of(medicines);
+        lock.writeLock().lock();
+        try {
+            install(built);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the whole index with a snapshot of dbo.Medicines. Rows written while the snapshot
+     * was loading are read again before it is installed, so no committed write is lost.
+     * @param loader loads every medicine (in or out of stock)
+     * @param rowLoader loads the current rows of the given medicines; a missing row was deleted
+     * @return The number of medicines indexed
+     */
+    public int rebuild(Supplier<List<Medicine>> loader, Function<Collection<Integer>, List<Medicine>> rowLoader) {
+        synchronized (rebuildLock) {
+            long start = stamp.get();
+            Tables built = Tables.of(loader.get());
+            for (int round = 0; ; round++) {
+                Set<Integer> written;
+                long next;
+                lock.writeLock().lock();
+                try {
+                    next = stamp.get();
+                    written = writtenSince(start);
+                    if (written.isEmpty() || round == MAX_RECHECKS) {
+                        // Any write after this point goes to the installed tables themselves
+                        install(built);
+                        if (!written.isEmpty()) {
+                            System.err.println("Search index installed with " + written.size()
+                                    + " row(s) still changing; the next rebuild picks them up");
+                        }
+                        return built.docs.size();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                // Rows written while the snapshot loaded may or may not be in it: read just those again
+                Map<Integer, Medicine> fresh = new HashMap<>();
+                for (Medicine m : rowLoader.apply(written)) {
+                    fresh.put(m.getId(), m);
+                }
+                for (Integer id : written) {
+                    Medicine row = fresh.get(id);
+                    if (row != null) {
+                        built.upsert(row);
+                    } else {
+                        built.remove(id);
+                    }
+                }
+                start = next;
+            }
+        }
+    }
+
+    // Caller holds the write lock
+    private void install(Tables built) {
+        tables = built;
+        textVersion++;
+        ready = true;
+    }
+
+    /**
+     * Add or replace one medicine after its save committed.
+     */
+    public void upsert(Medicine medicine) {
+        lock.writeLock().lock();
+        try {
+            recordWrite(medicine.getId());
+            if (tables.upsert(medicine)) {
+                textVersion++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove one medicine after its delete committed.
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            recordWrite(id);
+            tables.remove(id);
+            textVersion++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a committed stock change. Name and category don't change, so postings stay as they are
+     * and only the read lock is needed.
+     */
+    public void adjustStock(int id, int delta) {
+        lock.readLock().lock();
+        try {
+            recordWrite(id);
+            Doc doc = tables.docs.get(id);
+            if (doc != null) {
+                doc.stock.addAndGet(delta);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void recordWrite(int id) {
+        writtenAt.put(id, stamp.incrementAndGet());
+    }
+
+    private Set<Integer> writtenSince(long start) {
+        Set<Integer> ids = new HashSet<>();
+        writtenAt.forEach((id, at) -> {
+            if (at > start) ids.add(id);
+        });
+        return ids;
+    }
+
+    /**
+     * Find in-stock medicines whose name and/or category contain the given text (case-insensitive).
+     * With a name query, results are ranked: exact name, then name prefix, then word prefix,
+     * then any other match; ties are ordered by name. Category-only results are ordered by name.
+     */
+    public List<Medicine> search(String name, String category) {
+        String nameTerm = name == null || name.trim().isEmpty() ? null : lower(name);
+        String categoryTerm = category == null || category.trim().isEmpty() ? null : lower(category);
+
+        lock.readLock().lock();
+        try {
+            List<Doc> matches = collect(nameTerm, categoryTerm);
+            if (nameTerm != null) {
+                matches.sort(Comparator.comparingInt((Doc d) -> rank(d.name, nameTerm)).thenComparing(BY_NAME));
+            } else {
+                matches.sort(BY_NAME);
+            }
+            List<Medicine> result = new ArrayList<>(matches.size());
+            for (Doc doc : matches) {
+                result.add(doc.current());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of search results in catalog order (lower-cased name, then id), starting right
+     * after the given cursor. Pass a null afterName for the first page.
+     * Returns up to limit + 1 medicines so the caller can tell whether there is another page.
+     */
+    public List<Medicine> searchPage(String name, String category, String afterName, int afterId, int limit) {
+        String nameTerm = name == null || name.trim().isEmpty() ? null : lower(name);
+        String categoryTerm = category == null || category.trim().isEmpty() ? null : lower(category);
+        String afterTerm = afterName == null ? null : lower(afterName);
+
+        lock.readLock().lock();
+        try {
+            List<Medicine> result = new ArrayList<>(limit + 1);
+            SortedMatches sorted = sortedMatches(nameTerm, categoryTerm);
+            int from = afterTerm == null ? 0 : sorted.indexAfter(afterTerm, afterId);
+            for (int i = from; i < sorted.ids.length && result.size() <= limit; i++) {
+                // Stock is checked on the current document; the sorted list doesn't depend on it
+                Doc doc = tables.docs.get(sorted.ids[i]);
+                if (doc != null && doc.inStock()) {
+                    result.add(doc.current());
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Caller must hold the read lock (so textVersion can't change while the list is built)
+    private SortedMatches sortedMatches(String nameTerm, String categoryTerm) {
+        String key = (nameTerm == null ? "" : nameTerm) + '\u0000' + (categoryTerm == null ? "" : categoryTerm);
+        synchronized (sortedMatches) {
+            SortedMatches cached = sortedMatches.get(key);
+            if (cached != null && cached.textVersion == textVersion) {
+                return cached;
+            }
+        }
+        List<Doc> matches = collect(nameTerm, categoryTerm, false);
+        matches.sort(BY_NAME);
+        SortedMatches sorted = new SortedMatches(textVersion, matches);
+        synchronized (sortedMatches) {
+            sortedMatches.put(key, sorted);
+        }
+        return sorted;
+    }
+
+    // Same order as MedicineRepository.CATALOG_ORDER
+    private static final Comparator<Doc> BY_NAME = Comparator.comparing((Doc d) -> d.name)
+            .thenComparingInt(d -> d.medicine.getId());
+
+    // Caller must hold the read lock
+    private List<Doc> collect(String nameTerm, String categoryTerm) {
+        return collect(nameTerm, categoryTerm, true);
+    }
+
+    private List<Doc> collect(String nameTerm, String categoryTerm, boolean inStockOnly) {
+        List<Doc> matches = new ArrayList<>();
+        int[] candidates = null;
+        if (nameTerm != null) {
+            candidates = candidates(tables.nameGrams, nameTerm);
+        }
+        if (categoryTerm != null) {
+            int[] byCategory = candidates(tables.categoryGrams, categoryTerm);
+            candidates = candidates == null ? byCategory
+                    : byCategory == null ? candidates : intersect(candidates, byCategory);
+        }
+
+        if (candidates == null) {
+            // Terms shorter than a trigram: check every document
+            for (Doc doc : tables.docs.values()) {
+                if (matches(doc, nameTerm, categoryTerm, inStockOnly)) matches.add(doc);
+            }
+        } else {
+            for (int id : candidates) {
+                Doc doc = tables.docs.get(id);
+                if (doc != null && matches(doc, nameTerm, categoryTerm, inStockOnly)) matches.add(doc);
+            }
+        }
+        return matches;
+    }
+
+    private boolean matches(Doc doc, String nameTerm, String categoryTerm, boolean inStockOnly) {
+        if (inStockOnly && !doc.inStock()) return false;
+        if (nameTerm != null && !doc.name.contains(nameTerm)) return false;
+        if (categoryTerm != null && !doc.category.contains(categoryTerm)) return false;
+        return true;
+    }
+
+    // 0 = exact, 1 = prefix, 2 = starts a word, 3 = anywhere
+    private static int rank(String text, String term) {
+        if (text.equals(term)) return 0;
+        if (text.startsWith(term)) return 1;
+        int at = text.indexOf(term);
+        while (at > 0) {
+            if (!Character.isLetterOrDigit(text.charAt(at - 1))) return 2;
+            at = text.indexOf(term, at + 1);
+        }
+        return 3;
+    }
+
+    /**
+     * IDs that contain every gram of the term, or null when the term is too short to use the index.
+     */
+    private static int[] candidates(Map<String, int[]> index, String term) {
+        Set<String> grams = gramsOf(term);
+        if (grams.isEmpty()) return null;
+        List<int[]> postings = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            int[] ids = index.get(gram);
+            if (ids == null) return new int[0];
+            postings.add(ids);
+        }
+        // Start from the shortest list so the intersection shrinks as fast as possible
+        postings.sort(Comparator.comparingInt(a -> a.length));
+        int[] result = postings.get(0);
+        for (int i = 1; i < postings.size() && result.length > 0; i++) {
+            result = intersect(result, postings.get(i));
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] small, int[] large) {
+        if (small.length > large.length) {
+            int[] t = small;
+            small = large;
+            large = t;
+        }
+        int[] out = new int[small.length];
+        int n = 0;
+        int from = 0;
+        for (int id : small) {
+            int at = Arrays.binarySearch(large, from, large.length, id);
+            if (at >= 0) {
+                out[n++] = id;
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+            if (from >= large.length) break;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static void removeFrom(Map<String, int[]> index, String gram, int id) {
+        int[] ids = index.get(gram);
+        if (ids == null) return;
+        int at = Arrays.binarySearch(ids, id);
+        if (at < 0) return;
+        if (ids.length == 1) {
+            index.remove(gram);
+            return;
+        }
+        int[] out = new int[ids.length - 1];
+        System.arraycopy(ids, 0, out, 0, at);
+        System.arraycopy(ids, at + 1, out, at, ids.length - at - 1);
+        index.put(gram, out);
+    }
+
+    private static int[] insertSorted(int[] ids, int id) {
+        if (ids == null) return new int[] { id };
+        int at = Arrays.binarySearch(ids, id);
+        if (at >= 0) return ids;
+        at = -at - 1;
+        int[] out = new int[ids.length + 1];
+        System.arraycopy(ids, 0, out, 0, at);
+        out[at] = id;
+        System.arraycopy(ids, at, out, at + 1, ids.length - at);
+        return out;
+    }
+
+    private static Set<String> gramsOf(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    // Growable int array used while building posting lists
+    private static final class IntBuffer {
+        private int[] data = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.repository.CartRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves a guest's session cart (the "sessionCart" attribute) into dbo.Carts when they log in.
+ * However many lines the guest cart has, this is three statements in one transaction:
+ * one query locks the medicines and reads what the customer can still get of each (stock minus
+ * other customers' holds minus what is already in their cart), one batched MERGE adds the lines,
+ * and one batched MERGE holds the stock for them (StockReservationService; hot medicines aren't held).
+ * Lines that don't fully fit are reduced to what is available or skipped, and reported back.
+ */
+@Service
+public class CartMergeService {
+
+    private final JdbcTemplate jdbc;
+    private final CartRepository cartRepository;
+    private final StockReservationService stockReservationService;
+
+    @Autowired
+    public CartMergeService(JdbcTemplate jdbc, CartRepository cartRepository,
+                            StockReservationService stockReservationService) {
+        this.jdbc = jdbc;
+        this.cartRepository = cartRepository;
+        this.stockReservationService = stockReservationService;
+    }
+
+    /**
+     * Merge the guest cart lines into the customer's cart.
+     * @return What was added, reduced and skipped
+     */
+    @Transactional
+    public Result merge(int customerId, List<Cart> guestCart) {
+        Result result = new Result();
+        // The session cart already merges duplicates, but don't rely on it
+        Map<Integer, Integer> wanted = new LinkedHashMap<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (Cart c : guestCart) {
+            if (c.getQuantity() <= 0) continue;
+            wanted.merge(c.getMedicineId(), c.getQuantity(), Integer::sum);
+            names.putIfAbsent(c.getMedicineId(), c.getMedicineName() != null ? c.getMedicineName() : "Medicine #" + c.getMedicineId());
+        }
+        if (wanted.isEmpty()) {
+            return result;
+        }
+
+        Map<Integer, int[]> stock = loadAvailable(customerId, wanted.keySet());
+
+        Map<Integer, Integer> added = new LinkedHashMap<>();
+        Map<Integer, Integer> holds = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : wanted.entrySet()) {
+            int medicineId = line.getKey();
+            int[] availableAndInCart = stock.get(medicineId);
+            int room = availableAndInCart == null ? 0 : availableAndInCart[0] - availableAndInCart[1];
+            int quantity = Math.min(line.getValue(), Math.max(0, room));
+            if (quantity <= 0) {
+                result.skipped.add(names.get(medicineId));
+                continue;
+            }
+            if (quantity < line.getValue()) {
+                result.reduced.add(names.get(medicineId) + " (" + quantity + " of " + line.getValue() + ")");
+            }
+            added.put(medicineId, quantity);
+            holds.put(medicineId, availableAndInCart[1] + quantity);
+        }
+
+        cartRepository.addItems(customerId, added);
+        stockReservationService.holdAll(customerId, holds);
+        result.merged = added.size();
+        return result;
+    }
+
+    // medicineId -> {available to this customer, already in their cart}; medicines that no longer exist are missing
+    private Map<Integer, int[]> loadAvailable(int customerId, Set<Integer> medicineIds) {
+        String placeholders = String.join(",", Collections.nCopies(medicineIds.size(), "?"));
+        String sql = "SELECT m.id, m.stockLevel - COALESCE(h.held, 0) AS available, COALESCE(c.quantity, 0) AS inCart " +
+                     "FROM dbo.Medicines m WITH (UPDLOCK, ROWLOCK) " +
+                     "LEFT JOIN dbo.Carts c ON c.customerId = ? AND c.medicineId = m.id " +
+                     "OUTER APPLY (SELECT SUM(r.quantity) AS held FROM dbo.StockReservations r " +
+                     "WHERE r.medicineId = m.id AND r.customerId <> ? AND r.expiresAt > SYSUTCDATETIME()) h " +
+                     "WHERE m.id IN (" + placeholders + ")";
+        List<Object> args = new ArrayList<>(medicineIds.size() + 2);
+        args.add(customerId);
+        args.add(customerId);
+        args.addAll(medicineIds);
+        Map<Integer, int[]> stock = new HashMap<>();
+        jdbc.query(sql, rs -> {
+            stock.put(rs.getInt("id"), new int[] { rs.getInt("available"), rs.getInt("inCart") });
+        }, args.toArray());
+        return stock;
+    }
+
+    /**
+     * Outcome of a merge, for the message shown after login.
+     */
+    public static class Result {
+        private int merged;
+        private final List<String> reduced = new ArrayList<>();
+        private final List<String> skipped = new ArrayList<>();
+
+        public int getMerged() { return merged; }
+        public List<String> getReduced() { return reduced; }
+        public List<String> getSkipped() { return skipped; }
+    }
+}
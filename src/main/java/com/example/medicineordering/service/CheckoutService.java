@@ -0,0 +1,235 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.OrderItem;
+import com.example.medicineordering.repository.CartRepository;
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Turns a customer's cart into an order.
+ * Everything runs in one transaction with a fixed number of statements, however many
+ * lines the cart has: read cart, fetch prices (one IN query), insert order, reduce stock
+ * (one batch), insert items (one batch), clear cart. If any step fails the whole
+ * transaction rolls back, so stock is never taken for an order that wasn't saved.
+ * Submissions carry an idempotency key, so a double-click or retry returns the first order.
+ *
+ * The work is split in two steps so OrderPipeline can run the second one on a worker:
+ * openOrder() records the order as "Processing", completeOrder() takes the stock and
+ * moves it to "Pending". placeFromCart() does both in one go.
+ * Stock the customer holds for their cart (StockReservationService) is used up by the order.
+ * Hot medicines (HotStockService) are taken from their budget just before the transaction opens,
+ * because refilling a budget needs a connection of its own, and handed back if it rolls back.
+ */
+@Service
+public class CheckoutService {
+
+    public static final String STATUS_PROCESSING = "Processing";
+    public static final String STATUS_PENDING = "Pending";
+    // A checkout that never took its stock; distinct from "Failed", which is a failed delivery
+    public static final String STATUS_CHECKOUT_FAILED = "CHECKOUT_FAILED";
+
+    private final CartRepository cartRepository;
+    private final MedicineRepository medicineRepository;
+    private final OrderRepository orderRepository;
+    private final OrderItemRepository orderItemRepository;
+    private final StockReservationService stockReservationService;
+    private final OrderNumberAllocator orderNumberAllocator;
+    private final HotStockService hotStockService;
+    private final TransactionTemplate transaction;
+
+    @Autowired
+    public CheckoutService(CartRepository cartRepository, MedicineRepository medicineRepository,
+                           OrderRepository orderRepository, OrderItemRepository orderItemRepository,
+                           StockReservationService stockReservationService, OrderNumberAllocator orderNumberAllocator,
+                           HotStockService hotStockService, PlatformTransactionManager transactionManager) {
+        this.cartRepository = cartRepository;
+        this.medicineRepository = medicineRepository;
+        this.orderRepository = orderRepository;
+        this.orderItemRepository = orderItemRepository;
+        this.stockReservationService = stockReservationService;
+        this.orderNumberAllocator = orderNumberAllocator;
+        this.hotStockService = hotStockService;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Place an order for everything in the customer's cart.
+     * If an order was already placed with the same idempotency key it is returned as-is and
+     * nothing else happens. Two concurrent submissions with the same key can't both succeed:
+     * the second one hits the unique index and fails with a DuplicateKeyException.
+     * @param idempotencyKey customer-scoped key from the checkout form, or null
+     * @return The saved (or previously saved) order
+     * @throws CheckoutException when the cart is empty or an item is unavailable; nothing is changed
+     */
+    public Order placeFromCart(int customerId, String customerName, String deliveryAddress, String deliveryWindow,
+                               String idempotencyKey) {
+        Optional<Order> existing = findPlaced(idempotencyKey);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
+        List<Cart> cartItems = loadCart(customerId);
+        return withHotStock(cartItems, () -> transaction.execute(status -> {
+            Order saved = openOrder(customerId, cartItems, customerName, deliveryAddress, deliveryWindow, idempotencyKey);
+            completeTaken(saved.getId(), customerId, cartItems);
+            saved.setStatus(STATUS_PENDING);
+            return saved;
+        }));
+    }
+
+    /**
+     * The order already placed with this idempotency key, if any.
+     */
+    public Optional<Order> findPlaced(String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return Optional.empty();
+        }
+        return orderRepository.findByIdempotencyKey(idempotencyKey);
+    }
+
+    /**
+     * The customer's cart lines.
+     * @throws CheckoutException when the cart is empty
+     */
+    public List<Cart> loadCart(int customerId) {
+        List<Cart> cartItems = cartRepository.findByCustomerId(customerId);
+        if (cartItems == null || cartItems.isEmpty()) {
+            throw new CheckoutException("Cart is empty.");
+        }
+        return cartItems;
+    }
+
+    /**
+     * Step 1: record the order as "Processing". No stock is taken yet.
+     * The order row is inserted before any stock is touched, so a duplicate idempotency key aborts early.
+     */
+    public Order openOrder(int customerId, List<Cart> cartItems, String customerName, String deliveryAddress,
+                           String deliveryWindow, String idempotencyKey) {
+        double totalWeight = 0.0;
+        for (Cart c : cartItems) {
+            totalWeight = totalWeight + (c.getQuantity() * 0.1);
+        }
+
+        Order order = new Order();
+        order.setOrderNumber(orderNumberAllocator.next());
+        order.setCustomerId(customerId);
+        order.setCustomerName(customerName);
+        order.setDeliveryAddress(deliveryAddress);
+        order.setDeliveryWindow(deliveryWindow);
+        order.setStatus(STATUS_PROCESSING);
+        order.setWeight(totalWeight);
+        order.setIdempotencyKey(idempotencyKey);
+        Order saved = orderRepository.save(order);
+        if (saved.getId() <= 0) {
+            throw new CheckoutException("Failed to save order. Please try again.");
+        }
+        return saved;
+    }
+
+    /**
+     * Step 2: take the stock, save the items, remove the ordered lines from the cart and
+     * move the order to "Pending" - all or nothing.
+     * @throws CheckoutException when an item is unavailable; the transaction is rolled back
+     */
+    public void completeOrder(int orderId, int customerId, List<Cart> cartItems) {
+        withHotStock(cartItems, () -> transaction.execute(status -> {
+            completeTaken(orderId, customerId, cartItems);
+            return null;
+        }));
+    }
+
+    /**
+     * Take the hot medicines of the cart from their budget, then run the checkout.
+     * No connection is held yet, so a budget refill never waits for a second one from the pool
+     * while this checkout keeps its own; if the checkout fails, the units go back to the budget.
+     */
+    private <T> T withHotStock(List<Cart> cartItems, Supplier<T> checkout) {
+        Map<Integer, Integer> hotQuantities = hotStockService.extractHot(quantities(cartItems));
+        if (!hotQuantities.isEmpty()) {
+            List<Integer> outOfStock = hotStockService.take(hotQuantities);
+            if (!outOfStock.isEmpty()) {
+                System.err.println("Checkout refused, not enough stock for medicine IDs: " + outOfStock);
+                throw new CheckoutException("Some items are out of stock. Please check your cart and try again.");
+            }
+        }
+        try {
+            return checkout.get();
+        } catch (RuntimeException | Error e) {
+            hotStockService.giveBack(hotQuantities);
+            throw e;
+        }
+    }
+
+    // The same medicine can be in the cart more than once; stock is taken per medicine
+    private static Map<Integer, Integer> quantities(List<Cart> cartItems) {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (Cart c : cartItems) {
+            quantities.merge(c.getMedicineId(), c.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    // Step 2 inside the transaction; the hot medicines were already taken by withHotStock
+    private void completeTaken(int orderId, int customerId, List<Cart> cartItems) {
+        Map<Integer, Integer> quantities = quantities(cartItems);
+        List<Integer> cartIds = new ArrayList<>(cartItems.size());
+        for (Cart c : cartItems) {
+            cartIds.add(c.getId());
+        }
+
+        Map<Integer, Double> prices = medicineRepository.findPrices(quantities.keySet());
+        if (prices.size() < quantities.size()) {
+            throw new CheckoutException("Some items in your cart are no longer available. Please check your cart and try again.");
+        }
+
+        // Hot medicines (flash promotions) are sold from HotStockService's budget instead of their row
+        Map<Integer, Integer> rowQuantities = new LinkedHashMap<>(quantities);
+        hotStockService.extractHot(rowQuantities);
+        List<Integer> outOfStock = rowQuantities.isEmpty() ? new ArrayList<>()
+                : medicineRepository.reduceStockBatch(rowQuantities, customerId, orderId);
+        if (!outOfStock.isEmpty()) {
+            System.err.println("Checkout rolled back, not enough stock for medicine IDs: " + outOfStock);
+            throw new CheckoutException("Some items are out of stock. Please check your cart and try again.");
+        }
+
+        List<OrderItem> orderItems = new ArrayList<>(cartItems.size());
+        for (Cart c : cartItems) {
+            OrderItem item = new OrderItem();
+            item.setMedicineId(c.getMedicineId());
+            item.setQuantity(c.getQuantity());
+            item.setPrice(prices.get(c.getMedicineId()));
+            orderItems.add(item);
+        }
+        orderItemRepository.saveOrderItemsBatch(orderId, orderItems);
+
+        cartRepository.removeItems(customerId, cartIds);
+        // The stock is taken now, so the cart holds on it are no longer needed
+        stockReservationService.release(customerId, quantities.keySet());
+        orderRepository.updateOrderStatus(orderId, STATUS_PENDING);
+    }
+
+    /**
+     * A checkout that was refused; the message is safe to show to the customer.
+     */
+    public static class CheckoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CheckoutException(String message) {
+            super(message);
+        }
+    }
+}
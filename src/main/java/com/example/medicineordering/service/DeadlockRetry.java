@@ -0,0 +1,96 @@
+package com.example.medicineordering.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Re-runs a stock transaction that SQL Server aborted because of lock contention: it was chosen as
+ * deadlock victim (error 1205) or hit a lock or query timeout (1222). Spring turns those into
+ * PessimisticLockingFailureException / QueryTimeoutException. Anything else is not retried.
+ *
+ * The stock statements lock dbo.Medicines rows in medicineId order and before the cart and
+ * reservation rows, so deadlocks should be rare; this covers the ones that still happen (lock
+ * escalation, plan changes) without showing the customer an error. There are at most
+ * app.db.retry.max-attempts attempts, with exponential backoff and full jitter between them, so
+ * colliding transactions don't retry in lockstep.
+ *
+ * Call it outside the @Transactional method: each attempt must be a fresh transaction.
+ */
+@Component
+public class DeadlockRetry {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+
+    @Autowired
+    public DeadlockRetry(@Value("${app.db.retry.max-attempts:3}") int maxAttempts,
+                         @Value("${app.db.retry.base-delay-ms:20}") long baseDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+    }
+
+    /**
+     * Run the work, retrying it on deadlocks and lock timeouts.
+     * @param operation short name for the log, e.g. "checkout"
+     * @throws org.springframework.dao.DataAccessException the last failure when every attempt failed
+     */
+    public <T> T run(String operation, Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = work.get();
+                if (attempt > 1) {
+                    recovered.incrementAndGet();
+                }
+                return result;
+            } catch (PessimisticLockingFailureException | QueryTimeoutException e) {
+                if (attempt >= maxAttempts) {
+                    aborted.incrementAndGet();
+                    System.err.println(operation + " gave up after " + attempt + " attempts: " + e.getMessage());
+                    throw e;
+                }
+                retries.incrementAndGet();
+                backOff(attempt);
+            }
+        }
+    }
+
+    public void run(String operation, Runnable work) {
+        run(operation, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    // Full jitter: sleep a random time up to base * 2^(attempt-1)
+    private void backOff(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxAttempts", maxAttempts);
+        stats.put("retries", retries.get());
+        stats.put("recovered", recovered.get());
+        stats.put("aborted", aborted.get());
+        return stats;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.medicineordering.service;
 
 import com.example.medicineordering.files.StorageService;
+import com.example.medicineordering.files.ThumbnailService;
 import com.example.medicineordering.model.Driver;
 import com.example.medicineordering.repository.DeliveryExtrasRepository;
 import com.example.medicineordering.repository.DriverExtrasRepository;
@@ -8,6 +9,7 @@ import com.example.medicineordering.repository.DriverRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.*;
@@ -18,7 +20,9 @@ public class DriverServiceImpl implements DriverService {
     @Autowired private DriverExtrasRepository driverExtras;
     @Autowired private DeliveryExtrasRepository deliveryExtras;
     @Autowired private StorageService storage;
+    @Autowired private ThumbnailService thumbnails;
     @Autowired private JdbcTemplate jdbc;
+    @Autowired private OrderCancellationService orderCancellation;
 
     @Override
     public Map<String,Object> getHeader(int driverId) {
@@ -50,8 +54,9 @@ public class DriverServiceImpl implements DriverService {
 
     @Override
     public void markDelivered(int deliveryId,String recipient,String notes,MultipartFile photo,byte[] sig) throws Exception {
-        String photoUrl=storage.save(photo,"pod");
-        String sigUrl=sig!=null&&sig.length>0?storage.saveBytes(sig,"sig","png"):null;
+        String photoUrl=storage.save(photo);
+        thumbnails.enqueue(photoUrl);
+        String sigUrl=sig!=null&&sig.length>0?storage.saveBytes(sig,"png"):null;
         jdbc.update("UPDATE Deliveries SET status='delivered' WHERE id=?",deliveryId);
         // Update the corresponding order status to 'Delivered'
         jdbc.update("UPDATE Orders SET status='Delivered' WHERE id=(SELECT orderId FROM Deliveries WHERE id=?)",deliveryId);
@@ -60,11 +65,19 @@ public class DriverServiceImpl implements DriverService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public void reportIssue(int deliveryId,String type,String desc,MultipartFile photo,String action) throws Exception {
-        String photoUrl=storage.save(photo,"issue");
+        String photoUrl=storage.save(photo);
+        // The photo's reference is counted in this transaction; if it rolls back, a newly stored file goes too
+        storage.discardOnRollback(photoUrl);
+        thumbnails.enqueue(photoUrl);
         jdbc.update("UPDATE Deliveries SET status='failed' WHERE id=?",deliveryId);
-        // Update the corresponding order status to 'Failed'
-        jdbc.update("UPDATE Orders SET status='Failed' WHERE id=(SELECT orderId FROM Deliveries WHERE id=?)",deliveryId);
+        // Update the corresponding order status to 'Failed'; its stock goes back (same transaction)
+        // only when it is out with a driver, and never twice (see OrderCancellationService)
+        List<Integer> orderIds=jdbc.queryForList("SELECT orderId FROM Deliveries WHERE id=?",Integer.class,deliveryId);
+        if(!orderIds.isEmpty()&&orderIds.get(0)!=null&&!orderCancellation.failDelivery(orderIds.get(0))){
+            jdbc.update("UPDATE Orders SET status='Failed' WHERE id=?",orderIds.get(0));
+        }
         deliveryExtras.insertIssue(deliveryId,type,desc,photoUrl,action);
     }
 
@@ -0,0 +1,278 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.repository.InventoryLedgerRepository;
+import com.example.medicineordering.repository.MedicineRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional hot-SKU mode for flash promotions (app.stock.hot-skus, empty = off).
+ * Checkouts of a hot medicine don't UPDATE its dbo.Medicines row. They take units from an
+ * in-memory budget instead: a chunk of app.stock.hot-chunk units already subtracted from stockLevel
+ * (MedicineRepository.takeStock). The budget is split over striped counters, like a LongAdder, so
+ * concurrent buyers mostly CAS different cache lines. Only a buyer that finds its stripe short takes
+ * the per-medicine lock, gathers the other stripes and pulls a new chunk if needed.
+ * Budgets are taken outside any transaction (CheckoutService takes them before its own opens):
+ * a buyer waiting for the lock then holds no pooled connection, and the refill's connection is
+ * the only one its thread needs.
+ *
+ * This can't oversell: every unit in a budget was taken off stockLevel first, and a take never
+ * drives a stripe below zero. Every app.stock.reconcile-seconds, and on shutdown, unused budget is
+ * handed back to stockLevel, so the stock shown elsewhere is at most one chunk low. If the app
+ * crashes, the unused budget (at most a chunk per medicine) is lost until an inventory correction.
+ * Hot medicines are not held in carts (StockReservationService skips them), because each hold would
+ * lock the same row again.
+ */
+@Service
+public class HotStockService {
+
+    // Longs between two stripes, so neighbouring stripes don't share a cache line
+    private static final int PAD = 8;
+
+    private final MedicineRepository medicineRepository;
+    private final TransactionTemplate ownTransaction;
+    private final int chunk;
+    private final int stripes;
+    private final int reconcileSeconds;
+    private final Map<Integer, Budget> budgets = new HashMap<>();
+    private ScheduledExecutorService reconciler;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong returned = new AtomicLong();
+
+    @Autowired
+    public HotStockService(MedicineRepository medicineRepository, PlatformTransactionManager transactionManager,
+                           @Value("${app.stock.hot-skus:}") List<Integer> hotSkus,
+                           @Value("${app.stock.hot-chunk:50}") int chunk,
+                           @Value("${app.stock.hot-stripes:16}") int stripes,
+                           @Value("${app.stock.reconcile-seconds:10}") int reconcileSeconds) {
+        this.medicineRepository = medicineRepository;
+        // Pulling a chunk commits on its own: if the checkout that triggered it rolls back,
+        // the units must stay off stockLevel because they stay in the budget
+        this.ownTransaction = new TransactionTemplate(transactionManager);
+        this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.chunk = Math.max(1, chunk);
+        // Round up to a power of two so a stripe can be picked with a mask
+        this.stripes = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.reconcileSeconds = Math.max(1, reconcileSeconds);
+        for (Integer medicineId : hotSkus) {
+            budgets.put(medicineId, new Budget(medicineId, this.stripes));
+        }
+    }
+
+    public boolean isEnabled() {
+        return !budgets.isEmpty();
+    }
+
+    public boolean isHot(int medicineId) {
+        return budgets.containsKey(medicineId);
+    }
+
+    /**
+     * Units of a hot medicine left in this node's budget (not counting what is still in stockLevel).
+     */
+    public long budgetLeft(int medicineId) {
+        Budget budget = budgets.get(medicineId);
+        return budget != null ? budget.sum() : 0;
+    }
+
+    /**
+     * Split the hot medicines out of an order's quantities.
+     * @return medicineId -> quantity of the hot ones; they are removed from quantities
+     */
+    public Map<Integer, Integer> extractHot(Map<Integer, Integer> quantities) {
+        Map<Integer, Integer> hot = new LinkedHashMap<>();
+        if (!isEnabled()) return hot;
+        quantities.entrySet().removeIf(e -> {
+            if (isHot(e.getKey())) {
+                hot.put(e.getKey(), e.getValue());
+                return true;
+            }
+            return false;
+        });
+        return hot;
+    }
+
+    /**
+     * Take all the given quantities from the budgets, or nothing.
+     * Must be called before the caller's transaction opens; hand the units back with giveBack()
+     * if what they were taken for doesn't commit.
+     * @return IDs of the medicines that did not have enough stock (empty when everything was taken)
+     * @throws IllegalStateException when called inside a transaction
+     */
+    public List<Integer> take(Map<Integer, Integer> quantities) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Hot stock must be taken before the transaction opens");
+        }
+        List<Integer> failed = new ArrayList<>();
+        Map<Integer, Integer> taken = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+            if (budgets.get(e.getKey()).take(e.getValue())) {
+                taken.put(e.getKey(), e.getValue());
+            } else {
+                failed.add(e.getKey());
+            }
+        }
+        if (!failed.isEmpty()) {
+            giveBack(taken);
+            refused.incrementAndGet();
+            return failed;
+        }
+        served.addAndGet(taken.size());
+        return failed;
+    }
+
+    /**
+     * Put units taken with take() back into the budgets.
+     */
+    public void giveBack(Map<Integer, Integer> quantities) {
+        quantities.forEach((id, quantity) -> budgets.get(id).add(quantity));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) return;
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hot-stock-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileSeconds, reconcileSeconds, TimeUnit.SECONDS);
+        System.out.println("Hot-SKU stock mode on for medicine IDs " + budgets.keySet());
+    }
+
+    /**
+     * Hand every unused budget back to stockLevel.
+     */
+    public void reconcile() {
+        for (Budget budget : budgets.values()) {
+            try {
+                budget.returnUnused();
+            } catch (Exception e) {
+                System.err.println("Hot stock reconcile failed for medicine " + budget.medicineId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reconciler == null) return;
+        reconciler.shutdownNow();
+        reconcile();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hotSkus", budgets.keySet());
+        stats.put("chunk", chunk);
+        stats.put("stripes", stripes);
+        stats.put("served", served.get());
+        stats.put("refills", refills.get());
+        stats.put("refused", refused.get());
+        stats.put("returned", returned.get());
+        Map<Integer, Long> left = new LinkedHashMap<>();
+        budgets.forEach((id, budget) -> left.put(id, budget.sum()));
+        stats.put("budgetLeft", left);
+        return stats;
+    }
+
+    // The in-memory budget of one medicine, spread over striped counters
+    private final class Budget {
+        final int medicineId;
+        final AtomicLongArray cells;
+        final int mask;
+
+        Budget(int medicineId, int stripes) {
+            this.medicineId = medicineId;
+            this.cells = new AtomicLongArray(stripes * PAD);
+            this.mask = stripes - 1;
+        }
+
+        private int home() {
+            return (int) (Thread.currentThread().getId() & mask) * PAD;
+        }
+
+        boolean take(int quantity) {
+            // Fast path: this thread's stripe, lock-free
+            int cell = home();
+            long left = cells.get(cell);
+            while (left >= quantity) {
+                if (cells.compareAndSet(cell, left, left - quantity)) {
+                    return true;
+                }
+                left = cells.get(cell);
+            }
+            return takeSlow(cell, quantity);
+        }
+
+        // Gather all stripes into this one and pull a chunk from the database if still short
+        private synchronized boolean takeSlow(int cell, int quantity) {
+            long have = drain();
+            if (have < quantity) {
+                int wanted = (int) Math.max(chunk, quantity - have);
+                Integer taken = ownTransaction.execute(status -> medicineRepository.takeStock(medicineId, wanted));
+                if (taken != null && taken > 0) {
+                    refills.incrementAndGet();
+                    have += taken;
+                }
+            }
+            if (have < quantity) {
+                cells.addAndGet(cell, have);
+                return false;
+            }
+            cells.addAndGet(cell, have - quantity);
+            return true;
+        }
+
+        void add(int quantity) {
+            cells.addAndGet(home(), quantity);
+        }
+
+        synchronized void returnUnused() {
+            long unused = drain();
+            if (unused > 0) {
+                if (medicineRepository.restoreStock(medicineId, (int) unused, InventoryLedgerRepository.BUDGET_RETURN)) {
+                    returned.addAndGet(unused);
+                } else {
+                    cells.addAndGet(home(), unused);
+                }
+            }
+        }
+
+        private long drain() {
+            long total = 0;
+            for (int i = 0; i < cells.length(); i += PAD) {
+                total += cells.getAndSet(i, 0);
+            }
+            return total;
+        }
+
+        long sum() {
+            long total = 0;
+            for (int i = 0; i < cells.length(); i += PAD) {
+                total += cells.get(i);
+            }
+            return total;
+        }
+    }
+}
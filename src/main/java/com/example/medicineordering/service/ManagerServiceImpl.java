@@ -12,6 +12,7 @@ import com.example.medicineordering.repository.OrderItemRepository;
 import com.example.medicineordering.repository.PrescriptionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import com.example.medicineordering.service.dto.AvailableDriverRow;
 import com.example.medicineordering.service.dto.DriverRow;
 import java.util.*;
@@ -25,14 +26,17 @@ public class ManagerServiceImpl implements ManagerService {
     private final DeliveryRepository deliveryRepo;
     private final OrderItemRepository orderItemRepo;
     private final PrescriptionRepository prescriptionRepo;
+    private final OrderCancellationService orderCancellation;
 
     @Autowired
-    public ManagerServiceImpl(OrderRepository orderRepo, DriverRepository driverRepo, DeliveryRepository deliveryRepo, OrderItemRepository orderItemRepo, PrescriptionRepository prescriptionRepo) {
+    public ManagerServiceImpl(OrderRepository orderRepo, DriverRepository driverRepo, DeliveryRepository deliveryRepo, OrderItemRepository orderItemRepo, PrescriptionRepository prescriptionRepo,
+                              OrderCancellationService orderCancellation) {
         this.orderRepo = orderRepo;
         this.driverRepo = driverRepo;
         this.deliveryRepo = deliveryRepo;
         this.orderItemRepo = orderItemRepo;
         this.prescriptionRepo = prescriptionRepo;
+        this.orderCancellation = orderCancellation;
     }
 
     @Override
@@ -190,7 +194,12 @@ public class ManagerServiceImpl implements ManagerService {
     }
 
     @Override
+    @Transactional
     public void updateDeliveryStatus(int deliveryId, String status, String notes) {
+        // A failed delivery puts the order's stock back; this moves the order to "Failed" first
+        if ("failed".equalsIgnoreCase(status)) {
+            deliveryRepo.findById(deliveryId).ifPresent(d -> orderCancellation.failDelivery(d.getOrderId()));
+        }
         deliveryRepo.updateStatus(deliveryId, status, notes);
     }
 
@@ -0,0 +1,116 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes an order back: moves it to a final status and puts its stock back, in one transaction.
+ * release() is the shared step. It first moves the order out of one of the expected statuses with a
+ * guarded UPDATE (which also locks the order row), so an order can only be released once even if
+ * two requests race; then all items are restocked with a single statement
+ * (MedicineRepository.restoreStockForOrder). If anything fails, nothing is changed.
+ *
+ * The same UPDATE stamps Orders.restockedAt, and the items are only restocked when it wasn't set
+ * before. An order can come back from a final status (a failed delivery is reassigned to a driver),
+ * but its stock is never returned twice.
+ *
+ * Used when a customer cancels, when a pharmacist rejects the prescription of an order, and when a
+ * delivery fails.
+ */
+@Service
+public class OrderCancellationService {
+
+    public static final String STATUS_CANCELLED = "Cancelled";
+    public static final String STATUS_FAILED = "Failed";
+
+    // Orders a customer may still cancel. "Processing" is left out: its checkout may still be taking the stock.
+    private static final List<String> CANCELLABLE = List.of("Pending", "Ready", "PENDING_PRESCRIPTION");
+    // Orders waiting for a pharmacist's decision
+    private static final List<String> AWAITING_PRESCRIPTION = List.of("PENDING_PRESCRIPTION", "Pending", "Ready");
+    // Orders that are out with a driver
+    private static final List<String> OUT_FOR_DELIVERY = List.of("Assigned", "In Transit");
+
+    private final JdbcTemplate jdbc;
+    private final MedicineRepository medicineRepository;
+    private final OrderRepository orderRepository;
+    private final OrderItemRepository orderItemRepository;
+
+    @Autowired
+    public OrderCancellationService(JdbcTemplate jdbc, MedicineRepository medicineRepository,
+                                    OrderRepository orderRepository, OrderItemRepository orderItemRepository) {
+        this.jdbc = jdbc;
+        this.medicineRepository = medicineRepository;
+        this.orderRepository = orderRepository;
+        this.orderItemRepository = orderItemRepository;
+    }
+
+    /**
+     * Move the order from one of fromStatuses to newStatus and restock all of its items.
+     * @return false when the order doesn't exist or isn't in one of fromStatuses; nothing is changed
+     */
+    @Transactional
+    public boolean release(int orderId, String newStatus, Collection<String> fromStatuses) {
+        String placeholders = String.join(",", Collections.nCopies(fromStatuses.size(), "?"));
+        List<Object> args = new ArrayList<>(fromStatuses.size() + 2);
+        args.add(newStatus);
+        args.add(orderId);
+        args.addAll(fromStatuses);
+        // One row per moved order: the restockedAt it had before, null if its stock is still out
+        List<Timestamp> previous = jdbc.query(
+                "UPDATE dbo.Orders SET status = ?, restockedAt = COALESCE(restockedAt, SYSUTCDATETIME()) " +
+                "OUTPUT deleted.restockedAt WHERE id = ? AND status IN (" + placeholders + ")",
+                (rs, rowNum) -> rs.getTimestamp(1), args.toArray());
+        if (previous.isEmpty()) {
+            return false;
+        }
+        if (previous.get(0) != null) {
+            System.out.println("Order " + orderId + " -> " + newStatus + ", already restocked at " + previous.get(0));
+            return true;
+        }
+        Map<Integer, Integer> restored = medicineRepository.restoreStockForOrder(orderId);
+        System.out.println("Order " + orderId + " -> " + newStatus + ", restocked " + restored.size() + " medicine(s)");
+        return true;
+    }
+
+    /**
+     * Customer cancellation: restock, then delete the order and its items.
+     * @return false when the order can no longer be cancelled
+     */
+    @Transactional
+    public boolean cancelByCustomer(int orderId) {
+        if (!release(orderId, STATUS_CANCELLED, CANCELLABLE)) {
+            return false;
+        }
+        orderItemRepository.deleteByOrderId(orderId);
+        orderRepository.deleteById(orderId);
+        return true;
+    }
+
+    /**
+     * The pharmacist rejected the prescription the order depends on.
+     */
+    @Transactional
+    public boolean rejectPrescriptionOrder(int orderId) {
+        return release(orderId, STATUS_CANCELLED, AWAITING_PRESCRIPTION);
+    }
+
+    /**
+     * The driver couldn't deliver the order; its stock goes back on the shelf.
+     */
+    @Transactional
+    public boolean failDelivery(int orderId) {
+        return release(orderId, STATUS_FAILED, OUT_FOR_DELIVERY);
+    }
+}
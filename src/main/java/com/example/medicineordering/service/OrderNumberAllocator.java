@@ -0,0 +1,156 @@
+package com.example.medicineordering.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out order numbers like "ORD-000012K".
+ * Numbers come from the database sequence dbo.OrderNumberSeq, but not one at a time: the allocator
+ * reserves a block of app.orders.number-block values (sp_sequence_get_range, hi/lo style) and
+ * issues them from memory with an AtomicLong, so next() is lock-free and makes no database call.
+ * When half of a block is used the next block is fetched in the background, so a busy node rarely
+ * waits for one. Every node gets its own blocks, so numbers are unique across nodes and restarts;
+ * values of a block that a node never issued (e.g. it was restarted) are simply skipped.
+ *
+ * The number part is base 36, zero-padded to 7 characters, so it can't clash with the older
+ * random "ORD-" + 8 hex character numbers.
+ */
+@Service
+public class OrderNumberAllocator {
+
+    public static final String PREFIX = "ORD-";
+    private static final int WIDTH = 7;
+
+    private static final String RANGE_SQL = """
+        SET NOCOUNT ON;
+        DECLARE @first SQL_VARIANT;
+        EXEC sys.sp_sequence_get_range @sequence_name = N'dbo.OrderNumberSeq', @range_size = ?, @range_first_value = @first OUTPUT;
+        SELECT CAST(@first AS BIGINT);
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final int blockSize;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "order-number-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Block current = Block.EMPTY;
+    private volatile CompletableFuture<Block> upcoming;
+
+    private final AtomicLong blocksFetched = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    @Autowired
+    public OrderNumberAllocator(JdbcTemplate jdbc, @Value("${app.orders.number-block:100}") int blockSize) {
+        this.jdbc = jdbc;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * The next order number, e.g. "ORD-000012K".
+     */
+    public String next() {
+        return format(nextValue());
+    }
+
+    static String format(long value) {
+        String digits = Long.toString(value, 36).toUpperCase();
+        if (digits.length() >= WIDTH) {
+            return PREFIX + digits;
+        }
+        return PREFIX + "0".repeat(WIDTH - digits.length()) + digits;
+    }
+
+    private long nextValue() {
+        while (true) {
+            Block block = current;
+            long value = block.next.getAndIncrement();
+            if (value < block.end) {
+                if (value == block.first + blockSize / 2) {
+                    prefetch();
+                }
+                return value;
+            }
+            advance(block);
+        }
+    }
+
+    // Only the thread that finds the block used up switches to the next one; the others retry
+    private synchronized void advance(Block exhausted) {
+        if (current != exhausted) {
+            return;
+        }
+        CompletableFuture<Block> pending = upcoming;
+        upcoming = null;
+        Block block = null;
+        if (pending != null) {
+            try {
+                block = pending.join();
+            } catch (Exception e) {
+                System.err.println("Order number prefetch failed: " + e.getMessage());
+            }
+        }
+        if (block == null) {
+            waits.incrementAndGet();
+            block = fetchBlock();
+        }
+        current = block;
+    }
+
+    private synchronized void prefetch() {
+        if (upcoming == null) {
+            upcoming = CompletableFuture.supplyAsync(this::fetchBlock, prefetcher);
+        }
+    }
+
+    private Block fetchBlock() {
+        Long first = jdbc.queryForObject(RANGE_SQL, Long.class, blockSize);
+        if (first == null) {
+            throw new IllegalStateException("dbo.OrderNumberSeq returned no range");
+        }
+        blocksFetched.incrementAndGet();
+        return new Block(first, first + blockSize);
+    }
+
+    public Map<String, Object> getStats() {
+        Block block = current;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("blockSize", blockSize);
+        stats.put("blocksFetched", blocksFetched.get());
+        stats.put("waitedForBlock", waits.get());
+        stats.put("leftInBlock", Math.max(0, block.end - block.next.get()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetcher.shutdownNow();
+    }
+
+    // A reserved range [first, end) of sequence values; next is the value to issue next
+    private static final class Block {
+        static final Block EMPTY = new Block(0, 0);
+
+        final long first;
+        final long end;
+        final AtomicLong next;
+
+        Block(long first, long end) {
+            this.first = first;
+            this.end = end;
+            this.next = new AtomicLong(first);
+        }
+    }
+}
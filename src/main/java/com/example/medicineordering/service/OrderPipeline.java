@@ -0,0 +1,175 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.repository.OrderRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous order intake.
+ * The request thread only reads the cart and inserts the order as "Processing" (two short
+ * statements), then hands the rest of the checkout to a small pool of workers and returns.
+ * Customers follow the order on /customer/order-status/{id} until it becomes "Pending"
+ * (stock taken) or "CHECKOUT_FAILED" (no stock taken; kept apart from "Failed", which is a
+ * failed delivery that went through the delivery and restock flow).
+ *
+ * The pool is bounded: the queue holds app.orders.queue-capacity orders and when it is full
+ * the submitting request runs the checkout itself, which slows intake down instead of
+ * dropping orders.
+ */
+@Service
+public class OrderPipeline {
+
+    // Failure messages kept for the status page (only the most recent ones)
+    private static final int MAX_MESSAGES = 10_000;
+
+    private final CheckoutService checkoutService;
+    private final OrderRepository orderRepository;
+    private final JdbcTemplate jdbc;
+    private final DeadlockRetry deadlockRetry;
+    private final ThreadPoolExecutor workers;
+
+    private final Map<Integer, String> messages = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > MAX_MESSAGES;
+        }
+    };
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong ranInline = new AtomicLong();
+
+    @Autowired
+    public OrderPipeline(CheckoutService checkoutService, OrderRepository orderRepository, JdbcTemplate jdbc,
+                         DeadlockRetry deadlockRetry,
+                         @Value("${app.orders.workers:4}") int workerCount,
+                         @Value("${app.orders.queue-capacity:500}") int queueCapacity) {
+        this.checkoutService = checkoutService;
+        this.orderRepository = orderRepository;
+        this.jdbc = jdbc;
+        this.deadlockRetry = deadlockRetry;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "order-worker-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (task, executor) -> {
+                    // Queue full: back-pressure by running the checkout on the caller's thread
+                    ranInline.incrementAndGet();
+                    if (!executor.isShutdown()) {
+                        task.run();
+                    }
+                });
+    }
+
+    /**
+     * Accept an order for the customer's cart and queue the checkout.
+     * Returns as soon as the order row exists; its status is "Processing" until a worker finishes.
+     * A resubmission with the same idempotency key returns the original order and queues nothing.
+     * @throws CheckoutService.CheckoutException when the cart is empty
+     */
+    public Order submitFromCart(int customerId, String customerName, String deliveryAddress, String deliveryWindow,
+                                String idempotencyKey) {
+        Optional<Order> existing = checkoutService.findPlaced(idempotencyKey);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
+        List<Cart> cartItems = checkoutService.loadCart(customerId);
+        Order order = checkoutService.openOrder(customerId, cartItems, customerName, deliveryAddress, deliveryWindow, idempotencyKey);
+        submitted.incrementAndGet();
+        workers.execute(() -> process(order.getId(), customerId, cartItems));
+        return order;
+    }
+
+    private void process(int orderId, int customerId, List<Cart> cartItems) {
+        try {
+            deadlockRetry.run("checkout", () -> checkoutService.completeOrder(orderId, customerId, cartItems));
+            completed.incrementAndGet();
+        } catch (CheckoutService.CheckoutException e) {
+            fail(orderId, e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Order processing error for order " + orderId + ": " + e.getMessage());
+            e.printStackTrace();
+            fail(orderId, "We could not process your order. Your cart has not been changed, please try again.");
+        }
+    }
+
+    // The checkout transaction was rolled back, so only the status needs to change
+    private void fail(int orderId, String message) {
+        failed.incrementAndGet();
+        synchronized (messages) {
+            messages.put(orderId, message);
+        }
+        try {
+            orderRepository.updateOrderStatus(orderId, CheckoutService.STATUS_CHECKOUT_FAILED);
+        } catch (Exception e) {
+            System.err.println("Could not mark order " + orderId + " as failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Why an order failed during processing, if it failed since this instance started.
+     */
+    public String getMessage(int orderId) {
+        synchronized (messages) {
+            return messages.get(orderId);
+        }
+    }
+
+    /**
+     * Orders left in "Processing" by a previous run never got their stock; their checkout
+     * transaction did not commit. Mark them CHECKOUT_FAILED so they don't stay stuck.
+     * Only orders older than a few minutes are touched, so a live checkout is never failed.
+     * @return The number of orders marked failed.
+     */
+    public int failInterruptedOrders() {
+        return jdbc.update("UPDATE dbo.Orders SET status = ? WHERE status = ? AND orderDate < DATEADD(MINUTE, -5, GETDATE())",
+                CheckoutService.STATUS_CHECKOUT_FAILED, CheckoutService.STATUS_PROCESSING);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers.getMaximumPoolSize());
+        stats.put("active", workers.getActiveCount());
+        stats.put("queued", workers.getQueue().size());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("ranInline", ranInline.get());
+        return stats;
+    }
+
+    // Let queued orders finish on shutdown; anything still unfinished is failed on the next start
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
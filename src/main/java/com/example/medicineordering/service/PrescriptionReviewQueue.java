@@ -0,0 +1,101 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.model.Prescription;
+import com.example.medicineordering.repository.PrescriptionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Work queue over the pending prescriptions in dbo.Prescriptions.
+ * Each pharmacist works on their own batch of up to app.prescriptions.review-batch prescriptions,
+ * leased to them for app.prescriptions.lease-minutes (claimedBy/leaseExpiresAt). Opening the queue
+ * renews their live leases and tops the batch up from the oldest free ones. The claim skips rows
+ * another pharmacist is claiming at that moment (READPAST), so concurrent pharmacists never get the
+ * same prescription and never wait on each other. A lease that runs out, e.g. a pharmacist left,
+ * puts the prescription back in the queue.
+ *
+ * Approving or rejecting only succeeds for the lease holder (or a prescription nobody holds), so
+ * two pharmacists can't decide the same prescription.
+ */
+@Service
+public class PrescriptionReviewQueue {
+
+    private final PrescriptionRepository prescriptionRepository;
+    private final int batchSize;
+    private final int leaseSeconds;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong decided = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    @Autowired
+    public PrescriptionReviewQueue(PrescriptionRepository prescriptionRepository,
+                                   @Value("${app.prescriptions.review-batch:5}") int batchSize,
+                                   @Value("${app.prescriptions.lease-minutes:10}") int leaseMinutes) {
+        this.prescriptionRepository = prescriptionRepository;
+        this.batchSize = Math.max(1, batchSize);
+        this.leaseSeconds = Math.max(1, leaseMinutes) * 60;
+    }
+
+    /**
+     * The pharmacist's current batch: their live leases, renewed, plus newly claimed prescriptions.
+     */
+    public List<Prescription> myQueue(int pharmacistId) {
+        List<Integer> ids = new ArrayList<>(prescriptionRepository.renewLeases(pharmacistId, leaseSeconds));
+        if (ids.size() < batchSize) {
+            List<Integer> fresh = prescriptionRepository.claimPending(pharmacistId, batchSize - ids.size(), leaseSeconds);
+            claimed.addAndGet(fresh.size());
+            ids.addAll(fresh);
+        }
+        return prescriptionRepository.findByIds(ids);
+    }
+
+    /**
+     * Approve a pending prescription.
+     * @return false when another pharmacist holds it or it was already decided
+     */
+    public boolean approve(int prescriptionId, int pharmacistId) {
+        return decide(prescriptionId, pharmacistId, "APPROVED", null);
+    }
+
+    /**
+     * Reject a pending prescription with a reason.
+     * @return false when another pharmacist holds it or it was already decided
+     */
+    public boolean reject(int prescriptionId, int pharmacistId, String reason) {
+        return decide(prescriptionId, pharmacistId, "REJECTED", reason);
+    }
+
+    private boolean decide(int prescriptionId, int pharmacistId, String status, String reason) {
+        if (prescriptionRepository.decide(prescriptionId, pharmacistId, status, reason)) {
+            decided.incrementAndGet();
+            return true;
+        }
+        conflicts.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Put a leased prescription back in the queue for someone else.
+     */
+    public void release(int prescriptionId, int pharmacistId) {
+        prescriptionRepository.releaseLease(prescriptionId, pharmacistId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batchSize", batchSize);
+        stats.put("leaseSeconds", leaseSeconds);
+        stats.put("claimed", claimed.get());
+        stats.put("decided", decided.get());
+        stats.put("conflicts", conflicts.get());
+        return stats;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.medicineordering.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-boxed stock holds for customer carts (dbo.StockReservations).
+ * While a medicine is in a customer's cart, its quantity is held for app.reservations.ttl-minutes:
+ * other customers can only add or buy what is left after everyone else's live holds, so the
+ * customer doesn't find it gone at checkout. Checkout turns the hold into a real decrement
+ * (MedicineRepository.reduceStockBatch ignores the buyer's own holds) and then releases it.
+ *
+ * A hold counts only while expiresAt is in the future, so an expired hold stops blocking stock
+ * immediately. The sweeper thread just deletes the rows afterwards. It keeps every hold's due time
+ * in a DelayQueue (a priority heap), so each expiry costs O(log n) and the sweeper sleeps until the
+ * next one is due instead of scanning all carts.
+ *
+ * The queue holds one entry per (customer, medicine): a refresh only moves the latest due time in
+ * a map, and when the queued entry comes due the sweeper re-queues it at that time instead of
+ * deleting. So the queue grows with the number of holds, not with how often carts are viewed.
+ */
+@Service
+public class StockReservationService {
+
+    // How many due holds the sweeper deletes per batch
+    private static final int SWEEP_BATCH = 500;
+
+    private final JdbcTemplate jdbc;
+    private final HotStockService hotStockService;
+    private final int ttlSeconds;
+
+    private final DelayQueue<Expiry> expiries = new DelayQueue<>();
+    // Latest due time per hold; a key is in here exactly while one Expiry for it is queued
+    private final ConcurrentHashMap<Long, Long> dueTimes = new ConcurrentHashMap<>();
+    private Thread sweeper;
+
+    private final AtomicLong holds = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    @Autowired
+    public StockReservationService(JdbcTemplate jdbc, HotStockService hotStockService,
+                                   @Value("${app.reservations.ttl-minutes:15}") int ttlMinutes) {
+        this(jdbc, hotStockService, Duration.ofMinutes(ttlMinutes));
+    }
+
+    StockReservationService(JdbcTemplate jdbc, HotStockService hotStockService, Duration ttl) {
+        this.jdbc = jdbc;
+        this.hotStockService = hotStockService;
+        this.ttlSeconds = (int) ttl.toSeconds();
+    }
+
+    /**
+     * Hold a quantity of a medicine for the customer's cart line (replaces any earlier hold for
+     * that line and restarts its timer). The medicine row is locked while checking, so two
+     * customers can't both hold the last units.
+     * @return false when less than the quantity is available to this customer; nothing is changed
+     */
+    @Transactional
+    public boolean hold(int customerId, int medicineId, int quantity) {
+        if (hotStockService.isHot(medicineId)) {
+            // Not held: locking the hot row for every add to cart is what hot-SKU mode avoids
+            return available(customerId, medicineId) >= quantity;
+        }
+        Integer stock = jdbc.query("SELECT stockLevel FROM dbo.Medicines WITH (UPDLOCK, ROWLOCK) WHERE id = ?",
+                rs -> rs.next() ? rs.getInt(1) : null, medicineId);
+        if (stock == null || stock - heldByOthers(customerId, medicineId) < quantity) {
+            refused.incrementAndGet();
+            return false;
+        }
+        String sql = """
+            MERGE dbo.StockReservations WITH (HOLDLOCK) AS T
+            USING (SELECT ? AS customerId, ? AS medicineId) AS S
+            ON T.customerId = S.customerId AND T.medicineId = S.medicineId
+            WHEN MATCHED THEN
+                UPDATE SET quantity = ?, expiresAt = DATEADD(SECOND, ?, SYSUTCDATETIME())
+            WHEN NOT MATCHED THEN
+                INSERT (customerId, medicineId, quantity, expiresAt)
+                VALUES (S.customerId, S.medicineId, ?, DATEADD(SECOND, ?, SYSUTCDATETIME()));
+            """;
+        jdbc.update(sql, customerId, medicineId, quantity, ttlSeconds, quantity, ttlSeconds);
+        schedule(customerId, medicineId);
+        holds.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hold several cart lines at once in one batch (quantity per medicine, replacing earlier holds).
+     * Unlike hold() this doesn't check stock: the caller must already have checked availability
+     * with the medicine rows locked in the same transaction (see CartMergeService).
+     * Hot medicines are left out, as in hold().
+     */
+    public void holdAll(int customerId, Map<Integer, Integer> quantities) {
+        Map<Integer, Integer> held = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            if (!hotStockService.isHot(line.getKey())) {
+                held.put(line.getKey(), line.getValue());
+            }
+        }
+        if (held.isEmpty()) return;
+        String sql = """
+            MERGE dbo.StockReservations WITH (HOLDLOCK) AS T
+            USING (SELECT ? AS customerId, ? AS medicineId, ? AS quantity) AS S
+            ON T.customerId = S.customerId AND T.medicineId = S.medicineId
+            WHEN MATCHED THEN
+                UPDATE SET quantity = S.quantity, expiresAt = DATEADD(SECOND, ?, SYSUTCDATETIME())
+            WHEN NOT MATCHED THEN
+                INSERT (customerId, medicineId, quantity, expiresAt)
+                VALUES (S.customerId, S.medicineId, S.quantity, DATEADD(SECOND, ?, SYSUTCDATETIME()));
+            """;
+        List<Map.Entry<Integer, Integer>> lines = new ArrayList<>(held.entrySet());
+        jdbc.batchUpdate(sql, lines, lines.size(), (ps, line) -> {
+            ps.setInt(1, customerId);
+            ps.setInt(2, line.getKey());
+            ps.setInt(3, line.getValue());
+            ps.setInt(4, ttlSeconds);
+            ps.setInt(5, ttlSeconds);
+        });
+        for (Integer medicineId : held.keySet()) {
+            schedule(customerId, medicineId);
+        }
+        holds.addAndGet(held.size());
+    }
+
+    /**
+     * How many units of a medicine this customer could hold right now
+     * (for a hot medicine, including what is left in this node's budget).
+     */
+    public int available(int customerId, int medicineId) {
+        Integer stock = jdbc.query("SELECT stockLevel FROM dbo.Medicines WHERE id = ?",
+                rs -> rs.next() ? rs.getInt(1) : null, medicineId);
+        if (stock == null) return 0;
+        return (int) Math.max(0, stock - heldByOthers(customerId, medicineId) + hotStockService.budgetLeft(medicineId));
+    }
+
+    private int heldByOthers(int customerId, int medicineId) {
+        Integer held = jdbc.queryForObject(
+                "SELECT COALESCE(SUM(quantity), 0) FROM dbo.StockReservations " +
+                "WHERE medicineId = ? AND customerId <> ? AND expiresAt > SYSUTCDATETIME()",
+                Integer.class, medicineId, customerId);
+        return held != null ? held : 0;
+    }
+
+    /**
+     * Restart the timer on all of the customer's live holds (e.g. while they look at their cart).
+     */
+    public void refresh(int customerId) {
+        List<Integer> medicineIds = jdbc.queryForList(
+                "UPDATE dbo.StockReservations SET expiresAt = DATEADD(SECOND, ?, SYSUTCDATETIME()) " +
+                "OUTPUT inserted.medicineId WHERE customerId = ? AND expiresAt > SYSUTCDATETIME()",
+                Integer.class, ttlSeconds, customerId);
+        for (Integer medicineId : medicineIds) {
+            schedule(customerId, medicineId);
+        }
+    }
+
+    /**
+     * Release the customer's holds on the given medicines (cart line removed, or bought).
+     */
+    public void release(int customerId, Collection<Integer> medicineIds) {
+        List<Integer> ids = new ArrayList<>(medicineIds);
+        // Chunked to stay well under SQL Server's 2100 parameter limit
+        for (int from = 0; from < ids.size(); from += 1000) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + 1000));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(customerId);
+            args.addAll(chunk);
+            jdbc.update("DELETE FROM dbo.StockReservations WHERE customerId = ? AND medicineId IN (" + placeholders + ")",
+                    args.toArray());
+        }
+        // Their queue entries stay behind and are dropped when they come due (the DELETE matches nothing)
+    }
+
+    /**
+     * Put every hold in the database on the expiry queue (after a restart) and drop the ones
+     * that expired while the application was down.
+     * @return The number of live holds.
+     */
+    public int loadHolds() {
+        jdbc.update("DELETE FROM dbo.StockReservations WHERE expiresAt <= SYSUTCDATETIME()");
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT customerId, medicineId, DATEDIFF(SECOND, SYSUTCDATETIME(), expiresAt) AS secondsLeft " +
+                "FROM dbo.StockReservations");
+        for (Map<String, Object> row : rows) {
+            long dueAt = System.currentTimeMillis() + ((Number) row.get("secondsLeft")).longValue() * 1000L;
+            schedule((Integer) row.get("customerId"), (Integer) row.get("medicineId"), dueAt);
+        }
+        return rows.size();
+    }
+
+    private void schedule(int customerId, int medicineId) {
+        // A second of slack so the row has expired by the database clock too when the entry comes due
+        schedule(customerId, medicineId, System.currentTimeMillis() + (ttlSeconds + 1) * 1000L);
+    }
+
+    private void schedule(int customerId, int medicineId, long dueAt) {
+        // Only queue an entry if none is queued yet; otherwise the sweeper picks the new time up
+        if (dueTimes.put(key(customerId, medicineId), dueAt) == null) {
+            expiries.add(new Expiry(customerId, medicineId, dueAt));
+        }
+    }
+
+    private static long key(int customerId, int medicineId) {
+        return ((long) customerId << 32) | (medicineId & 0xFFFFFFFFL);
+    }
+
+    @PostConstruct
+    public void startSweeper() {
+        sweeper = new Thread(this::sweep, "reservation-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    @PreDestroy
+    public void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.interrupt();
+        }
+    }
+
+    private void sweep() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<Expiry> taken = new ArrayList<>();
+                taken.add(expiries.take());
+                expiries.drainTo(taken, SWEEP_BATCH - 1);
+                List<Expiry> due = new ArrayList<>(taken.size());
+                for (Expiry e : taken) {
+                    long latest = dueTimes.getOrDefault(key(e.customerId, e.medicineId), e.dueAt);
+                    if (latest > e.dueAt) {
+                        // Refreshed since it was queued: wait for the new due time instead
+                        expiries.add(new Expiry(e.customerId, e.medicineId, latest));
+                    } else {
+                        due.add(e);
+                    }
+                }
+                if (!due.isEmpty()) {
+                    try {
+                        deleteExpired(due);
+                    } catch (RuntimeException e) {
+                        // Keep the entries (one per hold) and try again in a few seconds
+                        long retryAt = System.currentTimeMillis() + 5000L;
+                        for (Expiry d : due) {
+                            long at = dueTimes.merge(key(d.customerId, d.medicineId), retryAt, Math::max);
+                            expiries.add(new Expiry(d.customerId, d.medicineId, at));
+                        }
+                        throw e;
+                    }
+                }
+                for (Expiry e : due) {
+                    long key = key(e.customerId, e.medicineId);
+                    if (!dueTimes.remove(key, e.dueAt)) {
+                        // Refreshed while the rows were being deleted (the DELETE left that hold alone)
+                        Long latest = dueTimes.get(key);
+                        if (latest != null) expiries.add(new Expiry(e.customerId, e.medicineId, latest));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Reservation sweep failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Holds that were refreshed or released since they were queued don't match "expiresAt <= now" and stay
+    private void deleteExpired(List<Expiry> due) {
+        String sql = "DELETE FROM dbo.StockReservations WHERE customerId = ? AND medicineId = ? AND expiresAt <= SYSUTCDATETIME()";
+        int[][] counts = jdbc.batchUpdate(sql, due, due.size(), (ps, e) -> {
+            ps.setInt(1, e.customerId);
+            ps.setInt(2, e.medicineId);
+        });
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count > 0) expired.addAndGet(count);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("queued", expiries.size());
+        stats.put("tracked", dueTimes.size());
+        stats.put("holds", holds.get());
+        stats.put("refused", refused.get());
+        stats.put("expired", expired.get());
+        return stats;
+    }
+
+    // One queued expiry: the hold of (customerId, medicineId) is due at dueAt (epoch millis)
+    private static final class Expiry implements Delayed {
+        final int customerId;
+        final int medicineId;
+        final long dueAt;
+
+        Expiry(int customerId, int medicineId, long dueAt) {
+            this.customerId = customerId;
+            this.medicineId = medicineId;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Expiry) other).dueAt);
+        }
+    }
+}
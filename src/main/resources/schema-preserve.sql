@@ -221,3 +221,133 @@ CREATE TABLE dbo.Payments (
     notes NVARCHAR(500)
 );
 END
+
+-- Orders.idempotencyKey: one order per checkout submission (double-clicks / retries return the same order)
+IF NOT EXISTS (SELECT 1 FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Orders') AND name = 'idempotencyKey')
+    ALTER TABLE dbo.Orders ADD idempotencyKey NVARCHAR(100) NULL;
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.Orders') AND name = 'UX_Orders_IdempotencyKey')
+    CREATE UNIQUE INDEX UX_Orders_IdempotencyKey ON dbo.Orders(idempotencyKey) WHERE idempotencyKey IS NOT NULL;
+
+-- Orders.customerId: owner of the order (Users.id), used for per-customer order history
+IF NOT EXISTS (SELECT 1 FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Orders') AND name = 'customerId')
+    ALTER TABLE dbo.Orders ADD customerId INT NULL;
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.Orders') AND name = 'IX_Orders_Customer')
+    CREATE INDEX IX_Orders_Customer ON dbo.Orders(customerId, id DESC) INCLUDE (orderNumber, status, orderDate);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.OrderItems') AND name = 'IX_OrderItems_Order')
+    CREATE INDEX IX_OrderItems_Order ON dbo.OrderItems(orderId) INCLUDE (medicineId, quantity, price);
+
+-- Backfill owners of older orders, only where the customer name identifies exactly one customer
+UPDATE o SET o.customerId = u.id
+FROM dbo.Orders o
+JOIN dbo.Users u ON u.fullName = o.customerName AND u.role = 'Customer'
+WHERE o.customerId IS NULL
+  AND (SELECT COUNT(*) FROM dbo.Users u2 WHERE u2.fullName = o.customerName AND u2.role = 'Customer') = 1;
+
+-- Prescription orders saved without an owner take it from their prescription
+UPDATE o SET o.customerId = p.customerId
+FROM dbo.Orders o
+JOIN dbo.Prescriptions p ON p.orderId = o.id
+WHERE o.customerId IS NULL;
+
+-- Carts: one row per (customerId, medicineId). Fold existing duplicate rows into the oldest one first.
+UPDATE c SET c.quantity = d.totalQuantity
+FROM dbo.Carts c
+JOIN (SELECT MIN(id) AS keepId, SUM(quantity) AS totalQuantity
+      FROM dbo.Carts GROUP BY customerId, medicineId HAVING COUNT(*) > 1) d ON c.id = d.keepId;
+
+DELETE c FROM dbo.Carts c
+WHERE EXISTS (SELECT 1 FROM dbo.Carts k WHERE k.customerId = c.customerId AND k.medicineId = c.medicineId AND k.id < c.id);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.Carts') AND name = 'UX_Carts_Customer_Medicine')
+    CREATE UNIQUE INDEX UX_Carts_Customer_Medicine ON dbo.Carts(customerId, medicineId);
+
+-- StockReservations: time-boxed holds on stock for items in customer carts (see StockReservationService)
+IF NOT EXISTS (SELECT 1 FROM sys.tables WHERE name = 'StockReservations' AND schema_id = SCHEMA_ID('dbo'))
+CREATE TABLE dbo.StockReservations (
+    customerId INT NOT NULL,
+    medicineId INT NOT NULL,
+    quantity INT NOT NULL,
+    expiresAt DATETIME2 NOT NULL,
+    CONSTRAINT PK_StockReservations PRIMARY KEY (customerId, medicineId)
+);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.StockReservations') AND name = 'IX_StockReservations_Medicine')
+    CREATE INDEX IX_StockReservations_Medicine ON dbo.StockReservations(medicineId, expiresAt) INCLUDE (customerId, quantity);
+
+-- OrderNumberSeq: source of order numbers, reserved in blocks by OrderNumberAllocator
+IF NOT EXISTS (SELECT 1 FROM sys.sequences WHERE name = 'OrderNumberSeq' AND schema_id = SCHEMA_ID('dbo'))
+    CREATE SEQUENCE dbo.OrderNumberSeq AS BIGINT START WITH 1 INCREMENT BY 1 NO CACHE;
+
+-- InventoryMovements: append-only ledger of every stockLevel change (see InventoryLedgerRepository).
+-- No foreign keys or triggers: rows are written by OUTPUT ... INTO from the dbo.Medicines statements.
+IF NOT EXISTS (SELECT 1 FROM sys.tables WHERE name = 'InventoryMovements' AND schema_id = SCHEMA_ID('dbo'))
+CREATE TABLE dbo.InventoryMovements (
+    id BIGINT IDENTITY(1,1) PRIMARY KEY,
+    medicineId INT NOT NULL,
+    movementType NVARCHAR(20) NOT NULL,
+    quantity INT NOT NULL,
+    balanceAfter INT NULL,
+    referenceId INT NULL,
+    createdAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()
+);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.InventoryMovements') AND name = 'IX_InventoryMovements_Medicine')
+    CREATE INDEX IX_InventoryMovements_Medicine ON dbo.InventoryMovements(medicineId, id) INCLUDE (quantity, createdAt);
+
+-- InventorySnapshots: a medicine's stock level as of one movement; level = latest snapshot + later movements
+IF NOT EXISTS (SELECT 1 FROM sys.tables WHERE name = 'InventorySnapshots' AND schema_id = SCHEMA_ID('dbo'))
+CREATE TABLE dbo.InventorySnapshots (
+    medicineId INT NOT NULL,
+    movementId BIGINT NOT NULL,
+    stockLevel INT NOT NULL,
+    takenAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    CONSTRAINT PK_InventorySnapshots PRIMARY KEY (medicineId, movementId)
+);
+
+-- Medicines.rowVersion: optimistic concurrency for pharmacist edits (changes on every update of the row)
+IF NOT EXISTS (SELECT 1 FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Medicines') AND name = 'rowVersion')
+    ALTER TABLE dbo.Medicines ADD rowVersion ROWVERSION;
+
+-- StoredFiles: content-addressed uploads and how many records reference each (see StorageService)
+IF NOT EXISTS (SELECT 1 FROM sys.tables WHERE name = 'StoredFiles' AND schema_id = SCHEMA_ID('dbo'))
+CREATE TABLE dbo.StoredFiles (
+    sha256 CHAR(64) NOT NULL PRIMARY KEY,
+    path NVARCHAR(300) NOT NULL,
+    size BIGINT NOT NULL,
+    refCount INT NOT NULL,
+    createdAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()
+);
+
+-- DerivativeJobs: thumbnail generation per stored file, retried from here after failures and restarts (see ThumbnailService)
+IF NOT EXISTS (SELECT 1 FROM sys.tables WHERE name = 'DerivativeJobs' AND schema_id = SCHEMA_ID('dbo'))
+CREATE TABLE dbo.DerivativeJobs (
+    id INT IDENTITY(1,1) PRIMARY KEY,
+    sourcePath NVARCHAR(300) NOT NULL UNIQUE,
+    status NVARCHAR(20) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    nextAttemptAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    derivedPath NVARCHAR(320) NULL,
+    lastError NVARCHAR(500) NULL,
+    createdAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    updatedAt DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()
+);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.DerivativeJobs') AND name = 'IX_DerivativeJobs_Due')
+    CREATE INDEX IX_DerivativeJobs_Due ON dbo.DerivativeJobs(status, nextAttemptAt);
+
+-- Prescriptions review leases: the pharmacist reviewing a pending prescription, until leaseExpiresAt (see PrescriptionReviewQueue)
+IF NOT EXISTS (SELECT 1 FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'claimedBy')
+    ALTER TABLE dbo.Prescriptions ADD claimedBy INT NULL, leaseExpiresAt DATETIME2 NULL;
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE object_id = OBJECT_ID('dbo.Prescriptions') AND name = 'IX_Prescriptions_Status')
+    CREATE INDEX IX_Prescriptions_Status ON dbo.Prescriptions(status, id) INCLUDE (claimedBy, leaseExpiresAt);
+
+-- Orders.restockedAt: when the order's stock went back on the shelf, so it is only ever returned once (see OrderCancellationService)
+IF NOT EXISTS (SELECT 1 FROM sys.columns WHERE object_id = OBJECT_ID('dbo.Orders') AND name = 'restockedAt')
+    ALTER TABLE dbo.Orders ADD restockedAt DATETIME2 NULL;
+
+-- Orders released before restockedAt existed already had their stock returned
+UPDATE dbo.Orders SET restockedAt = SYSUTCDATETIME() WHERE restockedAt IS NULL AND status IN ('Cancelled', 'Failed');
@@ -0,0 +1,112 @@
+package com.example.medicineordering.cache;
+
+import com.example.medicineordering.model.Medicine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MedicineCatalogCacheTest {
+
+    private static Medicine medicine(int id, String name, int stock) {
+        return new Medicine(id, name, "", 1.0, stock, false);
+    }
+
+    @Test
+    void stockChangesPatchTheCatalogInsteadOfReloadingIt() {
+        MedicineCatalogCache cache = new MedicineCatalogCache(100, 60);
+        AtomicInteger loads = new AtomicInteger();
+        List<Medicine> rows = List.of(medicine(1, "Aspirin", 5), medicine(2, "Ibuprofen", 1));
+
+        cache.getCatalog(() -> { loads.incrementAndGet(); return new ArrayList<>(rows); }, ids -> List.of());
+        cache.adjustStock(1, -2);
+        cache.adjustStock(2, -1);
+        List<Medicine> catalog = cache.getCatalog(() -> { loads.incrementAndGet(); return new ArrayList<>(rows); }, ids -> List.of());
+
+        assertThat(loads).hasValue(1);
+        assertThat(catalog).extracting(Medicine::getId).containsExactly(1);
+        assertThat(catalog.get(0).getStockLevel()).isEqualTo(3);
+
+        // Back in stock: re-inserted in catalog order from the by-ID copy
+        cache.adjustStock(2, 4);
+        catalog = cache.getCatalog(() -> { loads.incrementAndGet(); return new ArrayList<>(rows); }, ids -> List.of());
+        assertThat(loads).hasValue(1);
+        assertThat(catalog).extracting(Medicine::getId).containsExactly(1, 2);
+        assertThat(catalog.get(1).getStockLevel()).isEqualTo(4);
+    }
+
+    @Test
+    void writeDuringLoadRereadsOnlyThatRowAndStillInstalls() {
+        MedicineCatalogCache cache = new MedicineCatalogCache(100, 60);
+        List<List<Integer>> reread = new ArrayList<>();
+
+        List<Medicine> catalog = cache.getCatalog(() -> {
+            // A checkout commits while the full load is running
+            cache.adjustStock(2, -1);
+            return new ArrayList<>(List.of(medicine(1, "Aspirin", 5), medicine(2, "Ibuprofen", 1)));
+        }, ids -> {
+            reread.add(new ArrayList<>(ids));
+            return List.of(medicine(2, "Ibuprofen", 0));
+        });
+
+        assertThat(reread).containsExactly(List.of(2));
+        assertThat(catalog).extracting(Medicine::getId).containsExactly(1);
+        assertThat(cache.getCatalog(() -> { throw new AssertionError("reloaded"); }, ids -> List.of()))
+                .isSameAs(catalog);
+    }
+
+    @Test
+    void putMovesARenamedMedicine() {
+        MedicineCatalogCache cache = new MedicineCatalogCache(100, 60);
+        cache.getCatalog(() -> new ArrayList<>(List.of(medicine(1, "Aspirin", 5), medicine(2, "Ibuprofen", 1))),
+                ids -> List.of());
+
+        cache.put(medicine(1, "Zinc", 5));
+        cache.evict(2);
+
+        List<Medicine> catalog = cache.getCatalog(() -> { throw new AssertionError("reloaded"); }, ids -> List.of());
+        assertThat(catalog).extracting(Medicine::getName).containsExactly("Zinc");
+        assertThat(cache.get(1, () -> null).getName()).isEqualTo("Zinc");
+    }
+
+    @Test
+    void byIdEntriesExpireWithTheTtl() {
+        AtomicInteger loads = new AtomicInteger();
+        MedicineCatalogCache fresh = new MedicineCatalogCache(100, 60);
+        fresh.get(1, () -> { loads.incrementAndGet(); return medicine(1, "Aspirin", 5); });
+        fresh.get(1, () -> { loads.incrementAndGet(); return medicine(1, "Aspirin", 5); });
+        assertThat(loads).hasValue(1);
+
+        // A price changed outside this JVM is read again once the entry is past its TTL
+        MedicineCatalogCache expiring = new MedicineCatalogCache(100, 0);
+        expiring.get(1, () -> medicine(1, "Aspirin", 5));
+        Medicine reread = expiring.get(1, () -> new Medicine(1, "Aspirin", "", 2.5, 5, false));
+        assertThat(reread.getPrice()).isEqualTo(2.5);
+        assertThat(expiring.getStats()).containsEntry("expirations", 1L);
+    }
+
+    @Test
+    void pagesComeFromTheSortedCatalogAfterTheCursor() {
+        MedicineCatalogCache cache = new MedicineCatalogCache(100, 60);
+        List<Medicine> rows = List.of(medicine(3, "aspirin", 5), medicine(1, "Aspirin", 5),
+                medicine(2, "Ibuprofen", 1), medicine(4, "Zinc", 2));
+        cache.getCatalog(() -> new ArrayList<>(rows), ids -> List.of());
+
+        assertThat(cache.getCatalogPage(null, 0, 2, () -> List.of(), ids -> List.of()))
+                .extracting(Medicine::getId).containsExactly(1, 3);
+        assertThat(cache.getCatalogPage("Aspirin", 3, 2, () -> List.of(), ids -> List.of()))
+                .extracting(Medicine::getId).containsExactly(2, 4);
+
+        // A write moves only that entry; the next full read sees it
+        List<Medicine> before = cache.getCatalog(() -> List.of(), ids -> List.of());
+        cache.adjustStock(2, -1);
+        assertThat(cache.getCatalogPage("Aspirin", 3, 2, () -> List.of(), ids -> List.of()))
+                .extracting(Medicine::getId).containsExactly(4);
+        List<Medicine> after = cache.getCatalog(() -> List.of(), ids -> List.of());
+        assertThat(before).extracting(Medicine::getId).containsExactly(1, 3, 2, 4);
+        assertThat(after).extracting(Medicine::getId).containsExactly(1, 3, 4);
+    }
+}
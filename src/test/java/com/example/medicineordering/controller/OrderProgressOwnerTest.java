@@ -0,0 +1,100 @@
+package com.example.medicineordering.controller;
+
+import com.example.medicineordering.files.FileResponder;
+import com.example.medicineordering.files.StorageService;
+import com.example.medicineordering.files.ThumbnailService;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.User;
+import com.example.medicineordering.repository.CartRepository;
+import com.example.medicineordering.repository.ContactInquiryRepository;
+import com.example.medicineordering.repository.CustomerRepository;
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import com.example.medicineordering.repository.PrescriptionRepository;
+import com.example.medicineordering.service.CheckoutService;
+import com.example.medicineordering.service.CustomerSupportService;
+import com.example.medicineordering.service.DeadlockRetry;
+import com.example.medicineordering.service.NotificationService;
+import com.example.medicineordering.service.OrderCancellationService;
+import com.example.medicineordering.service.OrderNumberAllocator;
+import com.example.medicineordering.service.OrderPipeline;
+import com.example.medicineordering.service.StockReservationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpSession;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The polled progress of an order is only shown to the customer who placed it.
+ */
+class OrderProgressOwnerTest {
+
+    private static final int ORDER = 5;
+    private static final int OWNER = 17;
+
+    private CustomerController controller;
+
+    @BeforeEach
+    void setUp() {
+        Order order = new Order();
+        order.setId(ORDER);
+        order.setCustomerId(OWNER);
+        order.setStatus("Processing");
+        OrderRepository orders = mock(OrderRepository.class);
+        when(orders.findById(ORDER)).thenReturn(Optional.of(order));
+        OrderPipeline pipeline = mock(OrderPipeline.class);
+        when(pipeline.getMessage(ORDER)).thenReturn("Checking stock");
+        controller = new CustomerController(mock(MedicineRepository.class), orders,
+                mock(CartRepository.class), mock(PrescriptionRepository.class), mock(CustomerRepository.class),
+                mock(OrderItemRepository.class), mock(ContactInquiryRepository.class), mock(JdbcTemplate.class),
+                mock(NotificationService.class), mock(CustomerSupportService.class), mock(CheckoutService.class),
+                pipeline, mock(StockReservationService.class), mock(OrderNumberAllocator.class),
+                mock(OrderCancellationService.class), mock(DeadlockRetry.class), mock(FileResponder.class),
+                mock(StorageService.class), mock(ThumbnailService.class));
+    }
+
+    private static MockHttpSession sessionOf(int userId, String role) {
+        User user = new User();
+        user.setId(userId);
+        user.setRole(role);
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute("user", user);
+        return session;
+    }
+
+    @Test
+    void ownerSeesStatusAndMessage() {
+        ResponseEntity<Map<String, Object>> response = controller.orderProgress(ORDER, sessionOf(OWNER, "Customer"));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody()).containsEntry("status", "Processing").containsEntry("message", "Checking stock");
+    }
+
+    @Test
+    void anotherCustomersOrderIsNotFound() {
+        ResponseEntity<Map<String, Object>> response = controller.orderProgress(ORDER, sessionOf(OWNER + 1, "Customer"));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(404);
+        assertThat(response.getBody()).isNull();
+    }
+
+    @Test
+    void noCustomerInTheSessionIsNotFound() {
+        assertThat(controller.orderProgress(ORDER, new MockHttpSession()).getStatusCode().value()).isEqualTo(404);
+        assertThat(controller.orderProgress(ORDER, sessionOf(OWNER, "Pharmacist")).getStatusCode().value()).isEqualTo(404);
+    }
+
+    @Test
+    void missingOrderIsNotFound() {
+        assertThat(controller.orderProgress(ORDER + 1, sessionOf(OWNER, "Customer")).getStatusCode().value()).isEqualTo(404);
+    }
+}
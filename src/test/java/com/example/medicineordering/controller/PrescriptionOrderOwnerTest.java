@@ -0,0 +1,139 @@
+package com.example.medicineordering.controller;
+
+import com.example.medicineordering.files.FileResponder;
+import com.example.medicineordering.files.StorageService;
+import com.example.medicineordering.files.ThumbnailService;
+import com.example.medicineordering.model.Customer;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.OrderHistoryPage;
+import com.example.medicineordering.model.Prescription;
+import com.example.medicineordering.model.User;
+import com.example.medicineordering.repository.CartRepository;
+import com.example.medicineordering.repository.ContactInquiryRepository;
+import com.example.medicineordering.repository.CustomerRepository;
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import com.example.medicineordering.repository.PrescriptionRepository;
+import com.example.medicineordering.service.CheckoutService;
+import com.example.medicineordering.service.CustomerSupportService;
+import com.example.medicineordering.service.DeadlockRetry;
+import com.example.medicineordering.service.NotificationService;
+import com.example.medicineordering.service.OrderCancellationService;
+import com.example.medicineordering.service.OrderNumberAllocator;
+import com.example.medicineordering.service.OrderPipeline;
+import com.example.medicineordering.service.PrescriptionReviewQueue;
+import com.example.medicineordering.service.StockReservationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.support.RedirectAttributesModelMap;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Prescription orders must carry their owner, or the keyset order history never shows them.
+ */
+class PrescriptionOrderOwnerTest {
+
+    private static final int CUSTOMER = 17;
+
+    /** dbo.Orders in memory; findByCustomer filters on customerId like IX_Orders_Customer does */
+    private static class FakeOrders extends OrderRepository {
+        final List<Order> rows = new ArrayList<>();
+
+        FakeOrders() {
+            super(null);
+        }
+
+        @Override
+        public Order save(Order order) {
+            order.setId(rows.size() + 1);
+            rows.add(order);
+            return order;
+        }
+
+        @Override
+        public OrderHistoryPage findByCustomer(int customerId, int beforeId, int limit) {
+            List<Order> page = rows.stream()
+                    .filter(o -> o.getCustomerId() == customerId && (beforeId <= 0 || o.getId() < beforeId))
+                    .sorted(Comparator.comparingInt(Order::getId).reversed())
+                    .limit(limit)
+                    .toList();
+            return new OrderHistoryPage(page, false);
+        }
+    }
+
+    private static User user(int id, String role) {
+        User user = new User();
+        user.setId(id);
+        user.setRole(role);
+        user.setFullName("Sam Lee");
+        return user;
+    }
+
+    private static MockHttpSession sessionOf(User user) {
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute("user", user);
+        return session;
+    }
+
+    @Test
+    void uploadedPrescriptionOrderIsInTheCustomersHistory() throws Exception {
+        FakeOrders orders = new FakeOrders();
+        StorageService storage = mock(StorageService.class);
+        when(storage.save(any())).thenReturn("/uploads/ab/cd/scan.pdf");
+        when(storage.resolve(anyString())).thenReturn(Path.of("uploads/ab/cd/scan.pdf"));
+        CustomerRepository customers = mock(CustomerRepository.class);
+        when(customers.findById(anyInt())).thenReturn(Optional.of(new Customer()));
+        CustomerController controller = new CustomerController(mock(MedicineRepository.class), orders,
+                mock(CartRepository.class), mock(PrescriptionRepository.class), customers,
+                mock(OrderItemRepository.class), mock(ContactInquiryRepository.class), mock(JdbcTemplate.class),
+                mock(NotificationService.class), mock(CustomerSupportService.class), mock(CheckoutService.class),
+                mock(OrderPipeline.class), mock(StockReservationService.class), mock(OrderNumberAllocator.class),
+                mock(OrderCancellationService.class), mock(DeadlockRetry.class), mock(FileResponder.class),
+                storage, mock(ThumbnailService.class));
+
+        controller.uploadPrescription(new MockMultipartFile("file", "scan.pdf", "application/pdf", new byte[]{1, 2, 3}),
+                "1 Main St", "Morning", "555", null, sessionOf(user(CUSTOMER, "Customer")), new RedirectAttributesModelMap());
+
+        assertThat(orders.findByCustomer(CUSTOMER, 0, 10).getOrders())
+                .extracting(Order::getStatus).containsExactly("PENDING_PRESCRIPTION");
+    }
+
+    @Test
+    void orderCreatedOnApprovalIsInTheCustomersHistory() {
+        FakeOrders orders = new FakeOrders();
+        Prescription prescription = new Prescription();
+        prescription.setId(5);
+        prescription.setCustomerId(CUSTOMER);
+        prescription.setCustomerName("Sam Lee");
+        PrescriptionRepository prescriptions = mock(PrescriptionRepository.class);
+        when(prescriptions.findById(5)).thenReturn(List.of(prescription));
+        PrescriptionReviewQueue queue = mock(PrescriptionReviewQueue.class);
+        when(queue.approve(anyInt(), anyInt())).thenReturn(true);
+        PharmacistController controller = new PharmacistController();
+        ReflectionTestUtils.setField(controller, "prescriptionRepository", prescriptions);
+        ReflectionTestUtils.setField(controller, "orderRepository", orders);
+        ReflectionTestUtils.setField(controller, "orderNumberAllocator", mock(OrderNumberAllocator.class));
+        ReflectionTestUtils.setField(controller, "prescriptionReviewQueue", queue);
+
+        controller.approvePrescription(5, sessionOf(user(3, "Pharmacist")), new RedirectAttributesModelMap());
+
+        assertThat(orders.findByCustomer(CUSTOMER, 0, 10).getOrders())
+                .extracting(Order::getStatus).containsExactly("Ready");
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.medicineordering.files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileResponderTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private final FileResponder responder = new FileResponder(Long.MAX_VALUE);
+
+    @BeforeEach
+    void writeFile() throws IOException {
+        file = dir.resolve("scan.pdf");
+        Files.writeString(file, CONTENT, StandardCharsets.US_ASCII);
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws IOException {
+        return send(responder, request);
+    }
+
+    private MockHttpServletResponse send(FileResponder fileResponder, MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fileResponder.send(file, "prescription.pdf", request, response);
+        return response;
+    }
+
+    private static MockHttpServletRequest get(String... headers) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/customer/prescription/1/file");
+        for (int i = 0; i < headers.length; i += 2) {
+            request.addHeader(headers[i], headers[i + 1]);
+        }
+        return request;
+    }
+
+    private String etag() throws IOException {
+        return send(get()).getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    void wholeFileWithValidators() throws IOException {
+        MockHttpServletResponse response = send(get());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        assertThat(response.getContentLengthLong()).isEqualTo(CONTENT.length());
+        assertThat(response.getContentType()).isEqualTo("application/pdf");
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).startsWith("\"").endsWith("\"");
+        assertThat(response.getHeader(HttpHeaders.LAST_MODIFIED)).isNotNull();
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() throws IOException {
+        MockHttpServletResponse response = send(get(HttpHeaders.IF_NONE_MATCH, etag()));
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws IOException {
+        MockHttpServletResponse response = send(get(HttpHeaders.RANGE, "bytes=2-5"));
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/20");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    void suffixAndOpenEndedRanges() throws IOException {
+        MockHttpServletResponse suffix = send(get(HttpHeaders.RANGE, "bytes=-3"));
+        assertThat(suffix.getStatus()).isEqualTo(206);
+        assertThat(suffix.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 17-19/20");
+        assertThat(suffix.getContentAsString()).isEqualTo("hij");
+
+        // An end past the file is clipped to the last byte
+        MockHttpServletResponse open = send(get(HttpHeaders.RANGE, "bytes=15-99"));
+        assertThat(open.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 15-19/20");
+        assertThat(open.getContentAsString()).isEqualTo("fghij");
+    }
+
+    @Test
+    void rangeStartingPastTheEndIsNotSatisfiable() throws IOException {
+        MockHttpServletResponse response = send(get(HttpHeaders.RANGE, "bytes=20-"));
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */20");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void severalOrMalformedRangesGetTheWholeFile() throws IOException {
+        MockHttpServletResponse several = send(get(HttpHeaders.RANGE, "bytes=0-1,5-6"));
+        assertThat(several.getStatus()).isEqualTo(200);
+        assertThat(several.getContentAsString()).isEqualTo(CONTENT);
+
+        MockHttpServletResponse malformed = send(get(HttpHeaders.RANGE, "items=0-1"));
+        assertThat(malformed.getStatus()).isEqualTo(200);
+        assertThat(malformed.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void ifRangeOnlyHonoursTheRangeWhileTheFileIsUnchanged() throws IOException {
+        MockHttpServletResponse current = send(get(HttpHeaders.RANGE, "bytes=0-1", HttpHeaders.IF_RANGE, etag()));
+        assertThat(current.getStatus()).isEqualTo(206);
+        assertThat(current.getContentAsString()).isEqualTo("01");
+
+        MockHttpServletResponse stale = send(get(HttpHeaders.RANGE, "bytes=0-1", HttpHeaders.IF_RANGE, "\"other\""));
+        assertThat(stale.getStatus()).isEqualTo(200);
+        assertThat(stale.getContentAsString()).isEqualTo(CONTENT);
+
+        MockHttpServletResponse oldDate = send(get(HttpHeaders.RANGE, "bytes=0-1",
+                HttpHeaders.IF_RANGE, "Mon, 01 Jan 2001 00:00:00 GMT"));
+        assertThat(oldDate.getStatus()).isEqualTo(200);
+        assertThat(oldDate.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void headHasHeadersButNoBody() throws IOException {
+        MockHttpServletRequest head = get(HttpHeaders.RANGE, "bytes=0-3");
+        head.setMethod("HEAD");
+        MockHttpServletResponse response = send(head);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void missingFileIsNotFound() throws IOException {
+        Files.delete(file);
+        assertThat(send(get()).getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void largeEnoughFileIsHandedToSendfile() throws IOException {
+        MockHttpServletRequest request = get(HttpHeaders.RANGE, "bytes=4-");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        MockHttpServletResponse response = send(new FileResponder(1), request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(file.toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(4L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(20L);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.medicineordering.files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageServiceTest {
+
+    /** dbo.StoredFiles as sha256 -> {path, refCount}; snapshot() and rollback() stand in for a transaction */
+    private static class FakeStoredFiles extends JdbcTemplate {
+        Map<String, Object[]> rows = new HashMap<>();
+        private Map<String, Object[]> snapshot;
+
+        void begin() {
+            snapshot = copy(rows);
+        }
+
+        void rollback() {
+            rows = snapshot;
+        }
+
+        private static Map<String, Object[]> copy(Map<String, Object[]> from) {
+            Map<String, Object[]> to = new HashMap<>();
+            from.forEach((hash, row) -> to.put(hash, row.clone()));
+            return to;
+        }
+
+        int refCount(String hash) {
+            return rows.containsKey(hash) ? (Integer) rows.get(hash)[1] : 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            String hash = (String) args[0];
+            if (sql.contains("MERGE")) {
+                Object[] row = rows.computeIfAbsent(hash, h -> new Object[]{args[1], 0});
+                row[1] = (Integer) row[1] + 1;
+                return (T) row[0];
+            }
+            assertThat(sql).contains("COUNT(*)");
+            return (T) Integer.valueOf(rows.containsKey(hash) ? 1 : 0);
+        }
+
+        @Override
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            return List.of();
+        }
+    }
+
+    @TempDir
+    Path dir;
+
+    private final FakeStoredFiles storedFiles = new FakeStoredFiles();
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    // save() inside a transaction that then rolls back
+    private String saveAndRollBack(StorageService storage, String content) throws IOException {
+        TransactionSynchronizationManager.initSynchronization();
+        storedFiles.begin();
+        String url = storage.saveBytes(content.getBytes(StandardCharsets.US_ASCII), "png");
+        storage.discardOnRollback(url);
+        storedFiles.rollback();
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        return url;
+    }
+
+    private static String hashOf(String url) {
+        String name = Path.of(url).getFileName().toString();
+        return name.substring(0, 64);
+    }
+
+    @Test
+    void rolledBackSaveOfNewBytesDeletesTheFile() throws IOException {
+        StorageService storage = new StorageService(dir.toString(), storedFiles);
+
+        String url = saveAndRollBack(storage, "new photo");
+
+        assertThat(storedFiles.rows).isEmpty();
+        assertThat(Files.exists(storage.resolve(url))).isFalse();
+    }
+
+    @Test
+    void rolledBackSaveOfSharedBytesKeepsTheFileAndItsCount() throws IOException {
+        StorageService storage = new StorageService(dir.toString(), storedFiles);
+        String shared = storage.saveBytes("shared proof".getBytes(StandardCharsets.US_ASCII), "png");
+
+        String url = saveAndRollBack(storage, "shared proof");
+
+        assertThat(url).isEqualTo(shared);
+        // The rollback undid the extra reference; nothing is released on top of it
+        assertThat(storedFiles.refCount(hashOf(url))).isEqualTo(1);
+        assertThat(Files.exists(storage.resolve(url))).isTrue();
+    }
+
+    @Test
+    void committedSaveIsLeftAlone() throws IOException {
+        StorageService storage = new StorageService(dir.toString(), storedFiles);
+        TransactionSynchronizationManager.initSynchronization();
+        String url = storage.saveBytes("kept".getBytes(StandardCharsets.US_ASCII), "png");
+        storage.discardOnRollback(url);
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        assertThat(storedFiles.refCount(hashOf(url))).isEqualTo(1);
+        assertThat(Files.exists(storage.resolve(url))).isTrue();
+    }
+}
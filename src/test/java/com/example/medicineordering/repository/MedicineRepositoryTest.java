@@ -0,0 +1,94 @@
+package com.example.medicineordering.repository;
+
+import com.example.medicineordering.cache.MedicineCatalogCache;
+import com.example.medicineordering.model.Medicine;
+import com.example.medicineordering.search.MedicineSearchIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The cache and the search index only see a write once its transaction has committed,
+ * and ID lists are split to stay under SQL Server's parameter limit.
+ */
+class MedicineRepositoryTest {
+
+    /** Every UPDATE and DELETE touches one row */
+    private static class OneRowJdbc extends JdbcTemplate {
+        @Override
+        public int update(String sql, Object... args) {
+            return 1;
+        }
+    }
+
+    private final MedicineSearchIndex searchIndex = new MedicineSearchIndex();
+    private final MedicineRepository repository =
+            new MedicineRepository(new OneRowJdbc(), new MedicineCatalogCache(100, 60), searchIndex);
+
+    @BeforeEach
+    void indexOneMedicine() {
+        Medicine aspirin = new Medicine(1, "Aspirin", "", 1.0, 5, false);
+        aspirin.setCategory("Pain");
+        searchIndex.rebuild(List.of(aspirin));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private static void complete(int status) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    @Test
+    void rolledBackStockChangesAndDeletesNeverReachTheIndex() {
+        repository.reduceStock(1, 5);
+        repository.deleteById(1);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(searchIndex.search("aspirin", null)).extracting(Medicine::getStockLevel).containsExactly(5);
+    }
+
+    @Test
+    void committedChangesAreAppliedAfterTheCommit() {
+        repository.reduceStock(1, 2);
+        assertThat(searchIndex.search("aspirin", null)).extracting(Medicine::getStockLevel).containsExactly(5);
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(searchIndex.search("aspirin", null)).extracting(Medicine::getStockLevel).containsExactly(3);
+    }
+
+    @Test
+    void pricesForALargeCartStayUnderTheParameterLimit() {
+        List<Integer> parameterCounts = new ArrayList<>();
+        JdbcTemplate jdbc = new JdbcTemplate() {
+            @Override
+            public void query(String sql, RowCallbackHandler rch, Object... args) {
+                parameterCounts.add(args.length);
+            }
+        };
+        MedicineRepository prices = new MedicineRepository(jdbc, new MedicineCatalogCache(100, 60), searchIndex);
+
+        prices.findPrices(IntStream.rangeClosed(1, 2500).boxed().collect(Collectors.toList()));
+
+        assertThat(parameterCounts).containsExactly(1000, 1000, 500);
+    }
+}
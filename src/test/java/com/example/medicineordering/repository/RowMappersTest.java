@@ -0,0 +1,159 @@
+package com.example.medicineordering.repository;
+
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.Delivery;
+import com.example.medicineordering.model.Driver;
+import com.example.medicineordering.model.Medicine;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.model.OrderItem;
+import com.example.medicineordering.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * The hand-written mappers must produce the same objects BeanPropertyRowMapper did.
+ */
+class RowMappersTest {
+
+    private static final Timestamp T1 = Timestamp.valueOf(LocalDateTime.of(2024, 3, 1, 10, 15, 30));
+    private static final Timestamp T2 = Timestamp.valueOf(LocalDateTime.of(2024, 3, 2, 8, 0));
+
+    /** One row of a mocked ResultSet: columns in order, values as the JDBC driver would return them */
+    private static ResultSet row(Map<String, Object> columns) throws SQLException {
+        List<String> labels = new ArrayList<>(columns.keySet());
+        List<Object> values = new ArrayList<>(columns.values());
+        boolean[] wasNull = new boolean[1];
+
+        ResultSetMetaData meta = mock(ResultSetMetaData.class, invocation -> switch (invocation.getMethod().getName()) {
+            case "getColumnCount" -> labels.size();
+            case "getColumnLabel", "getColumnName" -> labels.get((Integer) invocation.getArgument(0) - 1);
+            default -> null;
+        });
+        return mock(ResultSet.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if (method.equals("getMetaData")) return meta;
+            if (method.equals("wasNull")) return wasNull[0];
+            if (!method.startsWith("get") || invocation.getArguments().length == 0
+                    || !(invocation.getArgument(0) instanceof Integer)) {
+                return null;
+            }
+            Object value = values.get((Integer) invocation.getArgument(0) - 1);
+            wasNull[0] = value == null;
+            return switch (method) {
+                case "getInt" -> value == null ? 0 : ((Number) value).intValue();
+                case "getLong" -> value == null ? 0L : ((Number) value).longValue();
+                case "getDouble" -> value == null ? 0.0 : ((Number) value).doubleValue();
+                case "getBoolean" -> value != null && (Boolean) value;
+                case "getString" -> value == null ? null : value.toString();
+                case "getTimestamp" -> value;
+                case "getObject" -> {
+                    if (invocation.getArguments().length == 2 && invocation.getArgument(1) == LocalDateTime.class) {
+                        yield value == null ? null : ((Timestamp) value).toLocalDateTime();
+                    }
+                    yield value;
+                }
+                default -> null;
+            };
+        });
+    }
+
+    private static <T> void assertSameAsBeanMapper(Class<T> type, RowMapper<T> mapper, Map<String, Object> columns)
+            throws SQLException {
+        T expected = BeanPropertyRowMapper.newInstance(type).mapRow(row(columns), 0);
+        T actual = mapper.mapRow(row(columns), 0);
+        assertThat(actual).usingRecursiveComparison().isEqualTo(expected);
+    }
+
+    private static Map<String, Object> columns(Object... labelsAndValues) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        for (int i = 0; i < labelsAndValues.length; i += 2) {
+            columns.put((String) labelsAndValues[i], labelsAndValues[i + 1]);
+        }
+        return columns;
+    }
+
+    @Test
+    void medicine() throws SQLException {
+        assertSameAsBeanMapper(Medicine.class, RowMappers.medicine(), columns(
+                "id", 7, "name", "Aspirin", "category", "Pain", "description", "Tablets", "price", 4.5,
+                "stockLevel", 12, "requiresPrescription", true, "imageUrl", "/img/a.png"));
+        assertSameAsBeanMapper(Medicine.class, RowMappers.medicine(), columns(
+                "id", 8, "name", "Zinc", "category", null, "description", null, "price", 1.0,
+                "stockLevel", 0, "requiresPrescription", false, "imageUrl", null));
+    }
+
+    @Test
+    void cartWithJoinedColumns() throws SQLException {
+        assertSameAsBeanMapper(Cart.class, RowMappers.cart(), columns(
+                "id", 1, "customerId", 2, "medicineId", 3, "quantity", 4, "price", 9.99,
+                "createdAt", T1, "updatedAt", T2, "medicineName", "Aspirin", "stockLevel", 20,
+                "category", "Pain", "requiresPrescription", false));
+        assertSameAsBeanMapper(Cart.class, RowMappers.cart(), columns(
+                "id", 1, "customerId", 2, "medicineId", 3, "quantity", 4, "price", 9.99,
+                "createdAt", T1, "updatedAt", null));
+    }
+
+    @Test
+    void order() throws SQLException {
+        assertSameAsBeanMapper(Order.class, RowMappers.order(), columns(
+                "id", 5, "orderNumber", "ORD-0001", "customerName", "Sam", "deliveryAddress", "1 Main St",
+                "deliveryWindow", "Morning", "weight", 1.25, "status", "Pending", "orderDate", T1,
+                "itemCount", 3, "idempotencyKey", "k-1", "customerId", 9));
+    }
+
+    @Test
+    void orderItemWithJoinedColumns() throws SQLException {
+        assertSameAsBeanMapper(OrderItem.class, RowMappers.orderItem(), columns(
+                "id", 1, "orderId", 5, "medicineId", 7, "quantity", 2, "price", 3.5,
+                "medicineName", "Aspirin", "category", "Pain", "requiresPrescription", true));
+    }
+
+    @Test
+    void driver() throws SQLException {
+        assertSameAsBeanMapper(Driver.class, RowMappers.driver(), columns(
+                "id", 3, "name", "Alex", "email", "alex@example.com", "phone", "555", "passwordHash", "x",
+                "vehicleType", "Van", "licensePlate", "AB-123", "serviceArea", "North", "available", true,
+                "createdAt", T1));
+    }
+
+    @Test
+    void delivery() throws SQLException {
+        assertSameAsBeanMapper(Delivery.class, RowMappers.delivery(), columns(
+                "id", 4, "orderId", 5, "driverId", 3, "status", "assigned", "eta", "10:30", "notes", null));
+    }
+
+    @Test
+    void user() throws SQLException {
+        assertSameAsBeanMapper(User.class, RowMappers.user(), columns(
+                "id", 2, "username", "sam", "passwordHash", "h", "role", "CUSTOMER", "email", "sam@example.com",
+                "fullName", "Sam Lee", "phone", "555", "createdAt", T1));
+
+        // isActive is mapped by name, which BeanPropertyRowMapper (property "active") never did
+        User inactive = RowMappers.user().mapRow(row(columns("id", 2, "isActive", false)), 0);
+        assertThat(inactive.isActive()).isFalse();
+    }
+
+    @Test
+    void mapperReusedForAnotherQueryResolvesColumnsAgain() throws SQLException {
+        RowMapper<Medicine> mapper = RowMappers.medicine();
+        mapper.mapRow(row(columns("id", 1, "name", "Aspirin")), 0);
+        Medicine m = mapper.mapRow(row(columns("name", "Zinc", "stockLevel", 4, "id", 2)), 0);
+        assertThat(m.getId()).isEqualTo(2);
+        assertThat(m.getName()).isEqualTo("Zinc");
+        assertThat(m.getStockLevel()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.medicineordering.search;
+
+import com.example.medicineordering.model.Medicine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MedicineSearchIndexTest {
+
+    private static Medicine medicine(int id, String name, String category, int stock) {
+        Medicine m = new Medicine(id, name, "", 1.0, stock, false);
+        m.setCategory(category);
+        return m;
+    }
+
+    private static MedicineSearchIndex index(Medicine... medicines) {
+        MedicineSearchIndex index = new MedicineSearchIndex();
+        index.rebuild(List.of(medicines));
+        return index;
+    }
+
+    @Test
+    void searchPageWalksMatchesInCatalogOrderFromTheCursor() {
+        MedicineSearchIndex index = index(
+                medicine(4, "Paracetamol 500", "Pain", 3),
+                medicine(1, "Paracetamol 250", "Pain", 3),
+                medicine(3, "Paracetamol 250", "Pain", 3),
+                medicine(2, "Ibuprofen", "Pain", 3));
+
+        List<Medicine> first = index.searchPage("paracetamol", null, null, 0, 2);
+        assertThat(first).extracting(Medicine::getId).containsExactly(1, 3, 4);
+
+        List<Medicine> second = index.searchPage("paracetamol", null, "Paracetamol 250", 3, 2);
+        assertThat(second).extracting(Medicine::getId).containsExactly(4);
+    }
+
+    @Test
+    void searchPageSeesStockChangesWithoutARebuild() {
+        MedicineSearchIndex index = index(
+                medicine(1, "Vitamin C", "Vitamins", 1),
+                medicine(2, "Vitamin D", "Vitamins", 0));
+
+        assertThat(index.searchPage(null, "vitamins", null, 0, 10)).extracting(Medicine::getId).containsExactly(1);
+
+        index.adjustStock(1, -1);
+        index.adjustStock(2, 5);
+        assertThat(index.searchPage(null, "vitamins", null, 0, 10)).extracting(Medicine::getId).containsExactly(2);
+    }
+
+    @Test
+    void searchPageFollowsRenames() {
+        MedicineSearchIndex index = index(
+                medicine(1, "Aspirin", "Pain", 1),
+                medicine(2, "Aspirin Plus", "Pain", 1));
+        assertThat(index.searchPage("aspirin", null, null, 0, 10)).extracting(Medicine::getId).containsExactly(1, 2);
+
+        index.upsert(medicine(1, "Zaspirin", "Pain", 1));
+        index.remove(2);
+        assertThat(index.searchPage("aspirin", null, null, 0, 10)).extracting(Medicine::getName).containsExactly("Zaspirin");
+    }
+
+    @Test
+    void trigramCandidatesAreCheckedForTheWholeSubstring() {
+        MedicineSearchIndex index = index(
+                medicine(1, "Ibuprofen", "Pain", 5),
+                // Has every gram of "profen" (pro, rof, ofe, fen) but not the substring itself
+                medicine(2, "Ofen Prof", "Pain", 5),
+                medicine(3, "Paracetamol", "Pain", 5));
+
+        assertThat(index.search("profen", null)).extracting(Medicine::getId).containsExactly(1);
+        assertThat(index.search("PROF", null)).extracting(Medicine::getId).containsExactly(2, 1);
+        assertThat(index.search("xyzzy", null)).isEmpty();
+    }
+
+    @Test
+    void nameAndCategoryPostingsAreIntersected() {
+        MedicineSearchIndex index = index(
+                medicine(1, "Vitamin C", "Vitamins", 5),
+                medicine(2, "Vitamin Drops", "Children", 5),
+                medicine(3, "Zinc", "Vitamins", 5),
+                medicine(4, "Vitamin D", "Vitamins", 0));
+
+        assertThat(index.search("vitamin", "vitamins")).extracting(Medicine::getId).containsExactly(1);
+        assertThat(index.search(null, "child")).extracting(Medicine::getId).containsExactly(2);
+    }
+
+    @Test
+    void termsShorterThanATrigramFallBackToAScan() {
+        MedicineSearchIndex index = index(
+                medicine(1, "Vitamin C", "Vitamins", 5),
+                medicine(2, "Cough Syrup", "Cold", 5),
+                medicine(3, "Zinc", "Minerals", 5));
+
+        // Name ranking: prefix before word start before anywhere, ties by name
+        assertThat(index.search("c", null)).extracting(Medicine::getId).containsExactly(2, 1, 3);
+        assertThat(index.search("zi", null)).extracting(Medicine::getId).containsExactly(3);
+        // A short term next to an indexed one: the indexed term narrows, the short one is checked
+        assertThat(index.search("c", "vitamins")).extracting(Medicine::getId).containsExactly(1);
+        assertThat(index.searchPage("in", null, null, 0, 10)).extracting(Medicine::getId).containsExactly(1, 3);
+    }
+
+    @Test
+    void upsertAndRemoveKeepPostingsInSync() {
+        MedicineSearchIndex index = index(medicine(1, "Aspirin", "Pain", 5));
+
+        index.upsert(medicine(2, "Aspirin Junior", "Pain", 5));
+        index.upsert(medicine(1, "Acetylsalicylic acid", "Pain", 5));
+        assertThat(index.search("aspirin", null)).extracting(Medicine::getId).containsExactly(2);
+        assertThat(index.search("salicyl", null)).extracting(Medicine::getId).containsExactly(1);
+
+        index.remove(2);
+        assertThat(index.search("aspirin", null)).isEmpty();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void rebuildKeepsWritesCommittedWhileTheSnapshotLoaded() {
+        MedicineSearchIndex index = index(medicine(1, "Aspirin", "Pain", 5), medicine(2, "Zinc", "Minerals", 5));
+        List<List<Integer>> reread = new ArrayList<>();
+
+        int size = index.rebuild(() -> {
+            List<Medicine> snapshot = List.of(medicine(1, "Aspirin", "Pain", 5), medicine(2, "Zinc", "Minerals", 5),
+                    medicine(3, "Ibuprofen", "Pain", 5));
+            // Commits land after the snapshot was read, before it is installed
+            index.adjustStock(1, -5);
+            index.remove(3);
+            index.upsert(medicine(2, "Zinc Plus", "Minerals", 5));
+            return snapshot;
+        }, ids -> {
+            reread.add(new ArrayList<>(ids));
+            return List.of(medicine(1, "Aspirin", "Pain", 0), medicine(2, "Zinc Plus", "Minerals", 5));
+        });
+
+        assertThat(reread).hasSize(1);
+        assertThat(reread.get(0)).containsExactlyInAnyOrder(1, 2, 3);
+        assertThat(size).isEqualTo(2);
+        assertThat(index.search("aspirin", null)).isEmpty();
+        assertThat(index.search("ibuprofen", null)).isEmpty();
+        assertThat(index.search("zinc plus", null)).extracting(Medicine::getId).containsExactly(2);
+    }
+
+    @Test
+    void resultsCarryTheCurrentStock() {
+        MedicineSearchIndex index = index(medicine(1, "Aspirin", "Pain", 5));
+        Medicine before = index.search("aspirin", null).get(0);
+
+        index.adjustStock(1, -2);
+
+        assertThat(before.getStockLevel()).isEqualTo(5);
+        assertThat(index.search("aspirin", null).get(0).getStockLevel()).isEqualTo(3);
+        assertThat(index.searchPage("aspirin", null, null, 0, 10).get(0).getStockLevel()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.model.Cart;
+import com.example.medicineordering.model.Order;
+import com.example.medicineordering.repository.CartRepository;
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HotStockServiceTest {
+
+    private static final int MEDICINE = 42;
+    private static final int STOCK = 300;
+    private static final int BUYERS = 200;
+    private static final int PER_BUYER = 2;
+
+    @Test
+    void concurrentBuyersNeverOversellAndReconcileConservesStock() throws Exception {
+        // dbo.Medicines.stockLevel of the hot medicine, changed like takeStock/restoreStock would
+        AtomicInteger stockLevel = new AtomicInteger(STOCK);
+        MedicineRepository medicines = mock(MedicineRepository.class);
+        when(medicines.takeStock(eq(MEDICINE), anyInt())).thenAnswer(invocation -> {
+            int wanted = invocation.getArgument(1);
+            synchronized (stockLevel) {
+                int taken = Math.min(wanted, stockLevel.get());
+                stockLevel.addAndGet(-taken);
+                return taken;
+            }
+        });
+        when(medicines.restoreStock(eq(MEDICINE), anyInt(), anyString())).thenAnswer(invocation -> {
+            stockLevel.addAndGet((Integer) invocation.getArgument(1));
+            return true;
+        });
+        HotStockService service = new HotStockService(medicines, mock(PlatformTransactionManager.class),
+                List.of(MEDICINE), 50, 16, 10);
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger sold = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        List<Thread> buyers = new ArrayList<>();
+        for (int i = 0; i < BUYERS; i++) {
+            Thread buyer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (service.take(Map.of(MEDICINE, PER_BUYER)).isEmpty()) {
+                    sold.addAndGet(PER_BUYER);
+                } else {
+                    refused.incrementAndGet();
+                }
+            });
+            buyer.start();
+            buyers.add(buyer);
+        }
+        // The reconciler hands budgets back while the buyers are taking from them
+        AtomicBoolean buying = new AtomicBoolean(true);
+        Thread reconciler = new Thread(() -> {
+            while (buying.get()) {
+                service.reconcile();
+                Thread.onSpinWait();
+            }
+        });
+        reconciler.start();
+
+        start.countDown();
+        for (Thread buyer : buyers) {
+            buyer.join();
+        }
+        buying.set(false);
+        reconciler.join();
+
+        // Demand (400) exceeds stock (300): everything is sold, and never more
+        assertThat(sold.get()).isEqualTo(STOCK);
+        assertThat(refused.get()).isEqualTo(BUYERS - STOCK / PER_BUYER);
+        assertThat(sold.get() + stockLevel.get() + service.budgetLeft(MEDICINE)).isEqualTo(STOCK);
+
+        service.reconcile();
+        assertThat(service.budgetLeft(MEDICINE)).isZero();
+        assertThat(sold.get() + stockLevel.get()).isEqualTo(STOCK);
+    }
+
+    /** A Hikari pool of pool-size connections over a driver that accepts every statement */
+    private static HikariDataSource pool(int poolSize) throws Exception {
+        DataSource driver = mock(DataSource.class);
+        when(driver.getConnection()).thenAnswer(invocation -> {
+            Connection connection = mock(Connection.class);
+            when(connection.isValid(anyInt())).thenReturn(true);
+            return connection;
+        });
+        HikariConfig config = new HikariConfig();
+        config.setDataSource(driver);
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(poolSize);
+        config.setConnectionTimeout(500);
+        return new HikariDataSource(config);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void checkoutsOnABoundedPoolNeverWaitForASecondConnection() throws Exception {
+        try (HikariDataSource pool = pool(4)) {
+            PlatformTransactionManager transactionManager = new DataSourceTransactionManager(pool);
+            AtomicInteger stockLevel = new AtomicInteger(STOCK);
+            MedicineRepository medicines = mock(MedicineRepository.class);
+            when(medicines.findPrices(any())).thenReturn(Map.of(MEDICINE, 9.99));
+            // A refill runs in a transaction of its own, on a connection taken from the same pool
+            when(medicines.takeStock(eq(MEDICINE), anyInt())).thenAnswer(invocation -> {
+                assertThat(TransactionSynchronizationManager.isActualTransactionActive()).isTrue();
+                sleep(5);
+                int wanted = invocation.getArgument(1);
+                synchronized (stockLevel) {
+                    int taken = Math.min(wanted, stockLevel.get());
+                    stockLevel.addAndGet(-taken);
+                    return taken;
+                }
+            });
+            CartRepository carts = mock(CartRepository.class);
+            when(carts.findByCustomerId(anyInt())).thenAnswer(invocation -> List.of(
+                    new Cart(invocation.getArgument(0), invocation.getArgument(0), MEDICINE, PER_BUYER, 9.99,
+                            null, null, null, 0, null, false)));
+            OrderRepository orders = mock(OrderRepository.class);
+            AtomicInteger orderIds = new AtomicInteger();
+            // Each checkout keeps its connection a little while, so the pool is always contended
+            when(orders.save(any(Order.class))).thenAnswer(invocation -> {
+                sleep(2);
+                Order order = invocation.getArgument(0);
+                order.setId(orderIds.incrementAndGet());
+                return order;
+            });
+            HotStockService hotStock = new HotStockService(medicines, transactionManager, List.of(MEDICINE), 50, 16, 10);
+            CheckoutService checkout = new CheckoutService(carts, medicines, orders, mock(OrderItemRepository.class),
+                    mock(StockReservationService.class), mock(OrderNumberAllocator.class), hotStock, transactionManager);
+
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger sold = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> buyers = new ArrayList<>();
+            for (int i = 1; i <= BUYERS; i++) {
+                int customerId = i;
+                Thread buyer = new Thread(() -> {
+                    try {
+                        start.await();
+                        checkout.placeFromCart(customerId, "Buyer " + customerId, "1 Main St", "Morning", null);
+                        sold.addAndGet(PER_BUYER);
+                    } catch (CheckoutService.CheckoutException e) {
+                        refused.incrementAndGet();
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                });
+                buyer.start();
+                buyers.add(buyer);
+            }
+            start.countDown();
+            for (Thread buyer : buyers) {
+                buyer.join();
+            }
+
+            // No checkout timed out waiting for a connection while the buyers held the others
+            assertThat(errors).isEmpty();
+            assertThat(sold.get()).isEqualTo(STOCK);
+            assertThat(refused.get()).isEqualTo(BUYERS - STOCK / PER_BUYER);
+            assertThat(sold.get() + stockLevel.get() + hotStock.budgetLeft(MEDICINE)).isEqualTo(STOCK);
+        }
+    }
+
+    @Test
+    void takingInsideATransactionIsRefused() {
+        HotStockService service = new HotStockService(mock(MedicineRepository.class),
+                mock(PlatformTransactionManager.class), List.of(MEDICINE), 50, 16, 10);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThatThrownBy(() -> service.take(Map.of(MEDICINE, 1))).isInstanceOf(IllegalStateException.class);
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+    }
+}
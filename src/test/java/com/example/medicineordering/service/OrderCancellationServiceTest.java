@@ -0,0 +1,77 @@
+package com.example.medicineordering.service;
+
+import com.example.medicineordering.repository.MedicineRepository;
+import com.example.medicineordering.repository.OrderItemRepository;
+import com.example.medicineordering.repository.OrderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderCancellationServiceTest {
+
+    /** One dbo.Orders row, updated the way the guarded release UPDATE would */
+    private static class FakeOrders extends JdbcTemplate {
+        String status = "Assigned";
+        Timestamp restockedAt;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            assertThat(sql).startsWith("UPDATE dbo.Orders SET status = ?, restockedAt = COALESCE(restockedAt");
+            List<Object> fromStatuses = Arrays.asList(args).subList(2, args.length);
+            if (!fromStatuses.contains(status)) {
+                return List.of();
+            }
+            List<T> out = new ArrayList<>();
+            out.add((T) restockedAt);
+            status = (String) args[0];
+            if (restockedAt == null) {
+                restockedAt = new Timestamp(System.currentTimeMillis());
+            }
+            return out;
+        }
+    }
+
+    @Test
+    void reassignedFailedDeliveryIsOnlyRestockedOnce() {
+        FakeOrders orders = new FakeOrders();
+        MedicineRepository medicines = mock(MedicineRepository.class);
+        when(medicines.restoreStockForOrder(anyInt())).thenReturn(Map.of(7, 2));
+        OrderCancellationService service = new OrderCancellationService(orders, medicines,
+                mock(OrderRepository.class), mock(OrderItemRepository.class));
+
+        assertThat(service.failDelivery(42)).isTrue();
+        // DeliveryRepository.updateStatus("assigned") puts the order back with a driver
+        orders.status = "Assigned";
+        assertThat(service.failDelivery(42)).isTrue();
+
+        assertThat(orders.status).isEqualTo(OrderCancellationService.STATUS_FAILED);
+        verify(medicines, times(1)).restoreStockForOrder(42);
+    }
+
+    @Test
+    void orderInAnotherStatusIsLeftAlone() {
+        FakeOrders orders = new FakeOrders();
+        orders.status = "Delivered";
+        MedicineRepository medicines = mock(MedicineRepository.class);
+        OrderCancellationService service = new OrderCancellationService(orders, medicines,
+                mock(OrderRepository.class), mock(OrderItemRepository.class));
+
+        assertThat(service.failDelivery(42)).isFalse();
+        assertThat(orders.restockedAt).isNull();
+        verify(medicines, times(0)).restoreStockForOrder(anyInt());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.medicineordering.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrderNumberAllocatorTest {
+
+    /** dbo.OrderNumberSeq: every sp_sequence_get_range call reserves the next range */
+    private static class FakeSequence extends JdbcTemplate {
+        final AtomicLong nextFirst;
+        final AtomicLong ranges = new AtomicLong();
+
+        FakeSequence(long start) {
+            this.nextFirst = new AtomicLong(start);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            assertThat(sql).contains("sp_sequence_get_range");
+            ranges.incrementAndGet();
+            return (T) Long.valueOf(nextFirst.getAndAdd((Integer) args[0]));
+        }
+    }
+
+    @Test
+    void formatIsBase36ZeroPaddedToSevenCharacters() {
+        assertThat(OrderNumberAllocator.format(0)).isEqualTo("ORD-0000000");
+        assertThat(OrderNumberAllocator.format(35)).isEqualTo("ORD-000000Z");
+        assertThat(OrderNumberAllocator.format(36)).isEqualTo("ORD-0000010");
+        assertThat(OrderNumberAllocator.format(1 * 36 * 36 + 2 * 36 + 20)).isEqualTo("ORD-000012K");
+        // Past seven base-36 digits the number just grows
+        assertThat(OrderNumberAllocator.format(78364164096L - 1)).isEqualTo("ORD-ZZZZZZZ");
+        assertThat(OrderNumberAllocator.format(78364164096L)).isEqualTo("ORD-10000000");
+    }
+
+    @Test
+    void rollsOverFromBlockToBlockWithoutGapsOrRepeats() {
+        FakeSequence sequence = new FakeSequence(1000);
+        OrderNumberAllocator allocator = new OrderNumberAllocator(sequence, 4);
+        try {
+            List<String> issued = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                issued.add(allocator.next());
+            }
+            // Blocks [1000,1004), [1004,1008), [1008,1012): the next block is prefetched at half of each
+            List<String> expected = new ArrayList<>();
+            for (long v = 1000; v < 1010; v++) {
+                expected.add(OrderNumberAllocator.format(v));
+            }
+            assertThat(issued).isEqualTo(expected);
+            assertThat(sequence.ranges.get()).isEqualTo(3);
+            assertThat(allocator.getStats()).containsEntry("leftInBlock", 2L);
+        } finally {
+            allocator.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentCallersNeverGetTheSameNumber() throws InterruptedException {
+        OrderNumberAllocator allocator = new OrderNumberAllocator(new FakeSequence(1), 10);
+        try {
+            Set<String> issued = ConcurrentHashMap.newKeySet();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        issued.add(allocator.next());
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(issued).hasSize(8 * 500);
+        } finally {
+            allocator.shutdown();
+        }
+    }
+}
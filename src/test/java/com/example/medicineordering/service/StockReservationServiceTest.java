@@ -0,0 +1,272 @@
+package com.example.medicineordering.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class StockReservationServiceTest {
+
+    private static final int MEDICINE = 10;
+
+    /** dbo.Medicines stock and dbo.StockReservations, with expiresAt on this JVM's clock */
+    private static class FakeReservations extends JdbcTemplate {
+        final Map<Integer, Integer> stock = new HashMap<>();
+        // customerId:medicineId -> {quantity, expiresAt}
+        final Map<String, long[]> holds = new HashMap<>();
+
+        FakeReservations(int medicineId, int stockLevel) {
+            stock.put(medicineId, stockLevel);
+        }
+
+        synchronized long[] hold(int customerId, int medicineId) {
+            return holds.get(customerId + ":" + medicineId);
+        }
+
+        synchronized int rows() {
+            return holds.size();
+        }
+
+        @Override
+        public <T> T query(String sql, ResultSetExtractor<T> rse, Object... args) {
+            assertThat(sql).startsWith("SELECT stockLevel FROM dbo.Medicines");
+            Integer level = stock.get((Integer) args[0]);
+            ResultSet rs = mock(ResultSet.class);
+            try {
+                when(rs.next()).thenReturn(level != null);
+                when(rs.getInt(1)).thenReturn(level != null ? level : 0);
+                return rse.extractData(rs);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            assertThat(sql).contains("SUM(quantity)").contains("customerId <> ?");
+            long now = System.currentTimeMillis();
+            int held = 0;
+            for (Map.Entry<String, long[]> h : holds.entrySet()) {
+                String[] ids = h.getKey().split(":");
+                if (ids[1].equals(args[0].toString()) && !ids[0].equals(args[1].toString()) && h.getValue()[1] > now) {
+                    held += (int) h.getValue()[0];
+                }
+            }
+            return (T) Integer.valueOf(held);
+        }
+
+        @Override
+        public synchronized int update(String sql, Object... args) {
+            if (sql.contains("MERGE")) {
+                holds.put(args[0] + ":" + args[1],
+                        new long[] { (Integer) args[2], System.currentTimeMillis() + (Integer) args[3] * 1000L });
+                return 1;
+            }
+            assertThat(sql).startsWith("DELETE FROM dbo.StockReservations WHERE customerId = ? AND medicineId IN");
+            int deleted = 0;
+            for (int i = 1; i < args.length; i++) {
+                if (holds.remove(args[0] + ":" + args[i]) != null) deleted++;
+            }
+            return deleted;
+        }
+
+        @Override
+        public synchronized <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                                    ParameterizedPreparedStatementSetter<T> pss) {
+            assertThat(sql).startsWith("DELETE FROM dbo.StockReservations").contains("expiresAt <= SYSUTCDATETIME()");
+            long now = System.currentTimeMillis();
+            int[] counts = new int[batchArgs.size()];
+            int i = 0;
+            for (T arg : batchArgs) {
+                int[] params = parameters(pss, arg);
+                String key = params[1] + ":" + params[2];
+                long[] h = holds.get(key);
+                if (h != null && h[1] <= now) {
+                    holds.remove(key);
+                    counts[i] = 1;
+                }
+                i++;
+            }
+            return new int[][] { counts };
+        }
+
+        // The setInt values the setter binds, by parameter index
+        private static <T> int[] parameters(ParameterizedPreparedStatementSetter<T> pss, T arg) {
+            int[] params = new int[8];
+            PreparedStatement ps = mock(PreparedStatement.class);
+            try {
+                doAnswer(invocation -> {
+                    params[(Integer) invocation.getArgument(0)] = invocation.getArgument(1);
+                    return null;
+                }).when(ps).setInt(anyInt(), anyInt());
+                pss.setValues(ps, arg);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return params;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("timed out").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void holdReducesWhatOtherCustomersCanGet() {
+        FakeReservations db = new FakeReservations(MEDICINE, 5);
+        StockReservationService service = new StockReservationService(db, mock(HotStockService.class), 15);
+
+        assertThat(service.hold(1, MEDICINE, 3)).isTrue();
+
+        assertThat(service.available(2, MEDICINE)).isEqualTo(2);
+        assertThat(service.hold(2, MEDICINE, 3)).isFalse();
+        assertThat(service.hold(2, MEDICINE, 2)).isTrue();
+        assertThat(service.available(3, MEDICINE)).isZero();
+        // A customer's own hold doesn't count against them
+        assertThat(service.available(1, MEDICINE)).isEqualTo(3);
+        assertThat(service.getStats()).containsEntry("holds", 2L).containsEntry("refused", 1L);
+    }
+
+    @Test
+    void expiredHoldIsSweptAndItsStockReturned() throws InterruptedException {
+        FakeReservations db = new FakeReservations(MEDICINE, 5);
+        StockReservationService service = new StockReservationService(db, mock(HotStockService.class),
+                Duration.ofSeconds(1));
+        service.startSweeper();
+        try {
+            assertThat(service.hold(1, MEDICINE, 3)).isTrue();
+            assertThat(service.available(2, MEDICINE)).isEqualTo(2);
+
+            await(() -> db.rows() == 0);
+
+            assertThat(service.available(2, MEDICINE)).isEqualTo(5);
+            await(() -> service.getStats().get("tracked").equals(0));
+            assertThat(service.getStats()).containsEntry("expired", 1L).containsEntry("queued", 0);
+        } finally {
+            service.stopSweeper();
+        }
+    }
+
+    @Test
+    void holdingAgainExtendsTheHoldInsteadOfAddingOne() throws InterruptedException {
+        FakeReservations db = new FakeReservations(MEDICINE, 5);
+        StockReservationService service = new StockReservationService(db, mock(HotStockService.class),
+                Duration.ofSeconds(1));
+        service.startSweeper();
+        try {
+            assertThat(service.hold(1, MEDICINE, 2)).isTrue();
+            long firstExpiry = db.hold(1, MEDICINE)[1];
+            Thread.sleep(600);
+            assertThat(service.hold(1, MEDICINE, 4)).isTrue();
+
+            assertThat(db.rows()).isEqualTo(1);
+            assertThat(db.hold(1, MEDICINE)[0]).isEqualTo(4);
+            assertThat(db.hold(1, MEDICINE)[1]).isGreaterThan(firstExpiry);
+            assertThat(service.getStats()).containsEntry("queued", 1).containsEntry("tracked", 1);
+
+            // Past the first expiry the extended hold still blocks the stock
+            Thread.sleep(firstExpiry - System.currentTimeMillis() + 100);
+            assertThat(service.available(2, MEDICINE)).isEqualTo(1);
+
+            await(() -> db.rows() == 0);
+            assertThat(service.available(2, MEDICINE)).isEqualTo(5);
+            await(() -> service.getStats().get("tracked").equals(0));
+            assertThat(service.getStats()).containsEntry("expired", 1L);
+        } finally {
+            service.stopSweeper();
+        }
+    }
+
+    @Test
+    void releaseClearsTheHoldAndTheSweeperDropsItsEntry() throws InterruptedException {
+        FakeReservations db = new FakeReservations(MEDICINE, 5);
+        StockReservationService service = new StockReservationService(db, mock(HotStockService.class),
+                Duration.ofSeconds(1));
+        service.startSweeper();
+        try {
+            assertThat(service.hold(1, MEDICINE, 3)).isTrue();
+
+            service.release(1, List.of(MEDICINE));
+
+            assertThat(db.rows()).isZero();
+            assertThat(service.available(2, MEDICINE)).isEqualTo(5);
+            // The queued entry comes due, matches no row and is dropped without counting an expiry
+            await(() -> service.getStats().get("tracked").equals(0));
+            assertThat(service.getStats()).containsEntry("expired", 0L).containsEntry("queued", 0);
+        } finally {
+            service.stopSweeper();
+        }
+    }
+
+    @Test
+    void refreshingAHoldKeepsOneQueueEntry() {
+        StockReservationService service = new StockReservationService(mock(JdbcTemplate.class),
+                mock(HotStockService.class), 15);
+
+        for (int view = 0; view < 100; view++) {
+            service.holdAll(1, Map.of(10, 2, 11, 1));
+        }
+        service.holdAll(2, Map.of(10, 1));
+
+        assertThat(service.getStats()).containsEntry("queued", 3).containsEntry("tracked", 3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void holdAllLeavesHotMedicinesOut() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        HotStockService hotStock = mock(HotStockService.class);
+        when(hotStock.isHot(42)).thenReturn(true);
+        StockReservationService service = new StockReservationService(jdbc, hotStock, 15);
+
+        Map<Integer, Integer> lines = new LinkedHashMap<>();
+        lines.put(10, 2);
+        lines.put(42, 1);
+        service.holdAll(1, lines);
+
+        ArgumentCaptor<Collection<Map.Entry<Integer, Integer>>> batch = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbc).batchUpdate(anyString(), batch.capture(), anyInt(), any());
+        assertThat(batch.getValue()).extracting(Map.Entry::getKey).containsExactly(10);
+        assertThat(service.getStats()).containsEntry("tracked", 1).containsEntry("holds", 1L);
+    }
+
+    @Test
+    void holdAllOfOnlyHotMedicinesTouchesNothing() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        HotStockService hotStock = mock(HotStockService.class);
+        when(hotStock.isHot(anyInt())).thenReturn(true);
+        StockReservationService service = new StockReservationService(jdbc, hotStock, 15);
+
+        service.holdAll(1, Map.of(42, 3));
+
+        verifyNoInteractions(jdbc);
+        assertThat(service.getStats()).containsEntry("tracked", 0).containsEntry("holds", 0L);
+    }
+}